@@ -0,0 +1,440 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Applies one operation chain to many image files without user interaction.
+ *
+ * Files flow through three stages (decode, filter, encode), each with its own
+ * worker threads and connected by bounded queues, so disk reads, filtering
+ * and encoding overlap. A fixed number of images may be in flight at once,
+ * from the start of their decode to the end of their encode, which keeps the
+ * heap bounded however many files there are.
+ */
+public final class BatchProcessor {
+
+    private final ImagePipeline pipeline;
+    private final Path outputDir;
+    private final ImageEncoder encoder;
+    private final int decodeThreads;
+    private final int filterThreads;
+    private final int encodeThreads;
+    private final int maxInFlight;
+
+    /**
+     * Creates a processor sized for this machine: one decode and one encode
+     * thread per two cores, one filter thread per core, and twice as many
+     * images in flight as there are threads.
+     *
+     * @param pipeline  The operations to apply to every image.
+     * @param outputDir The directory to write the results to.
+     */
+    public BatchProcessor(ImagePipeline pipeline, Path outputDir) {
+        this(pipeline, outputDir, ImageEncoder.of("jpg"));
+    }
+
+    /**
+     * Creates a processor sized for this machine that writes outputs with the
+     * given encoder.
+     *
+     * @param pipeline  The operations to apply to every image.
+     * @param outputDir The directory to write the results to.
+     * @param encoder   The format and settings of the outputs.
+     */
+    public BatchProcessor(ImagePipeline pipeline, Path outputDir, ImageEncoder encoder) {
+        this(pipeline, outputDir, encoder,
+             Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+             Runtime.getRuntime().availableProcessors(),
+             Math.max(1, Runtime.getRuntime().availableProcessors() / 2),
+             Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Creates a processor with explicit stage sizes.
+     *
+     * @param pipeline      The operations to apply to every image.
+     * @param outputDir     The directory to write the results to.
+     * @param encoder       The format and settings of the outputs; the format is also their extension.
+     * @param decodeThreads The number of decode threads.
+     * @param filterThreads The number of filter threads.
+     * @param encodeThreads The number of encode threads.
+     * @param maxInFlight   The most images that may be decoded but not yet written.
+     */
+    public BatchProcessor(ImagePipeline pipeline, Path outputDir, ImageEncoder encoder,
+                          int decodeThreads, int filterThreads, int encodeThreads, int maxInFlight) {
+        if (decodeThreads < 1 || filterThreads < 1 || encodeThreads < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("Thread counts and in-flight limit must be at least 1");
+        }
+        this.pipeline = pipeline;
+        this.outputDir = outputDir;
+        this.encoder = encoder;
+        this.decodeThreads = decodeThreads;
+        this.filterThreads = filterThreads;
+        this.encodeThreads = encodeThreads;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Lists the files matched by a directory or a glob such as "photos/*.jpg".
+     *
+     * @param dirOrGlob A directory (all regular files in it) or a path whose last element is a glob.
+     * @return The matching files, sorted by name.
+     * @throws IOException If the directory cannot be listed.
+     */
+    public static List<Path> listInputs(String dirOrGlob) throws IOException {
+        Path path = Paths.get(dirOrGlob);
+        Path dir;
+        PathMatcher matcher;
+        if (Files.isDirectory(path)) {
+            dir = path;
+            matcher = p -> true;
+        } else {
+            dir = path.getParent() != null ? path.getParent() : Paths.get(".");
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + path.getFileName());
+        }
+
+        List<Path> inputs = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(dir)) {
+            for (Path entry : entries) {
+                if (Files.isRegularFile(entry) && matcher.matches(entry.getFileName())) {
+                    inputs.add(entry);
+                }
+            }
+        }
+        Collections.sort(inputs);
+        return inputs;
+    }
+
+    /**
+     * Processes every input file and blocks until all outputs are written.
+     * Each output takes the input's base name and the output format's
+     * extension; inputs sharing a base name keep their own extension too, so
+     * a.jpg and a.png become a.jpg.jpg and a.png.jpg instead of overwriting
+     * each other. A name that is still taken, e.g. by a.jpg.png, gets a
+     * counter: a.jpg-1.jpg.
+     *
+     * @param inputs The files to process.
+     * @return Per-stage counts and timings for the run.
+     * @throws IOException          If the output directory cannot be created.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public Report run(List<Path> inputs) throws IOException, InterruptedException {
+        Files.createDirectories(outputDir);
+        Map<Path, Path> outputFiles = outputFiles(inputs);
+        Report report = new Report(decodeThreads, filterThreads, encodeThreads);
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger nextInput = new AtomicInteger();
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(maxInFlight);
+        BlockingQueue<Job> filtered = new ArrayBlockingQueue<>(maxInFlight);
+        AtomicInteger decodersLeft = new AtomicInteger(decodeThreads);
+        AtomicInteger filtersLeft = new AtomicInteger(filterThreads);
+        long started = System.nanoTime();
+
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < decodeThreads; i++) {
+            workers.add(worker("batch-decode-" + i, () -> {
+                try {
+                    for (int index; (index = nextInput.getAndIncrement()) < inputs.size(); ) {
+                        inFlight.acquire();
+                        Path input = inputs.get(index);
+                        long t0 = System.nanoTime();
+                        Metrics.Sample sample = Metrics.start(Metrics.DECODE, null);
+                        BufferedImage image;
+                        try {
+                            image = ImageIO.read(input.toFile());
+                            if (image == null) {
+                                throw new IOException("Unsupported image format");
+                            }
+                            Metrics.stop(sample, image);
+                            report.decode.record(System.nanoTime() - t0, (long) image.getWidth() * image.getHeight());
+                        } catch (Throwable e) {
+                            // Some ImageIO plugins fail with unchecked exceptions on corrupt input,
+                            // and a huge image can run out of memory; either way only this file fails
+                            report.fail(input, e);
+                            inFlight.release();
+                            continue;
+                        }
+                        decoded.put(new Job(input, image));
+                    }
+                } finally {
+                    // The last decoder tells every filter thread that no more work is coming
+                    if (decodersLeft.decrementAndGet() == 0) {
+                        for (int k = 0; k < filterThreads; k++) {
+                            decoded.put(Job.END);
+                        }
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < filterThreads; i++) {
+            workers.add(worker("batch-filter-" + i, () -> {
+                try {
+                    for (Job job; (job = decoded.take()) != Job.END; ) {
+                        long t0 = System.nanoTime();
+                        try {
+                            // Draw the filter buffers from the shared pool; the encoder releases the result
+                            job.image = pipeline.apply(job.image, ImageBufferPool.shared());
+                            report.filter.record(System.nanoTime() - t0, (long) job.image.getWidth() * job.image.getHeight());
+                        } catch (Throwable e) {
+                            // Without this an OutOfMemoryError would end the thread and strand its permit
+                            report.fail(job.input, e);
+                            job.image = null;
+                            inFlight.release();
+                            continue;
+                        }
+                        filtered.put(job);
+                    }
+                } finally {
+                    if (filtersLeft.decrementAndGet() == 0) {
+                        for (int k = 0; k < encodeThreads; k++) {
+                            filtered.put(Job.END);
+                        }
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < encodeThreads; i++) {
+            workers.add(worker("batch-encode-" + i, () -> {
+                for (Job job; (job = filtered.take()) != Job.END; ) {
+                    long t0 = System.nanoTime();
+                    try {
+                        encoder.write(job.image, outputFiles.get(job.input));
+                        report.encode.record(System.nanoTime() - t0, (long) job.image.getWidth() * job.image.getHeight());
+                    } catch (Throwable e) {
+                        report.fail(job.input, e);
+                    } finally {
+                        ImageBufferPool.shared().release(job.image);
+                        job.image = null;
+                        inFlight.release();
+                    }
+                }
+            }));
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        report.wallNanos = System.nanoTime() - started;
+        return report;
+    }
+
+    /**
+     * Runs a batch from the command line.
+     *
+     * Usage: BatchProcessor &lt;input dir or glob&gt; &lt;operation chain&gt; &lt;output dir&gt; [output format]
+     *
+     * The output format is written as for {@link ImageEncoder#parse(String)}
+     * and defaults to "jpg".
+     *
+     * @param args The input, chain, output and optional format arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: BatchProcessor <input dir or glob> <operation chain> <output dir> [output format]");
+            System.out.println("Example: BatchProcessor \"photos/*.jpg\" brightness:20,contrast:2,rotate:cw out jpg:quality=0.85,optimize");
+            return;
+        }
+        try {
+            ImagePipeline pipeline = ImagePipeline.parse(args[1]);
+            List<Path> inputs = listInputs(args[0]);
+            System.out.println("Processing " + inputs.size() + " images");
+            ImageEncoder encoder = ImageEncoder.parse(args.length == 4 ? args[3] : "jpg");
+            Report report = new BatchProcessor(pipeline, Paths.get(args[2]), encoder).run(inputs);
+            System.out.println(report);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Maps every input to its output file, as described for {@link #run(List)}.
+     */
+    private Map<Path, Path> outputFiles(List<Path> inputs) {
+        Map<String, Integer> baseCounts = new HashMap<>();
+        for (Path input : inputs) {
+            baseCounts.merge(baseName(input).toLowerCase(Locale.ROOT), 1, Integer::sum);
+        }
+        Map<Path, Path> outputs = new HashMap<>();
+        // Compare ignoring case, as the output directory may be on a case-insensitive file system
+        Set<String> taken = new HashSet<>();
+        for (Path input : inputs) {
+            String base = baseName(input);
+            String name = baseCounts.get(base.toLowerCase(Locale.ROOT)) > 1 ? input.getFileName().toString() : base;
+            String unique = name;
+            for (int n = 1; !taken.add(unique.toLowerCase(Locale.ROOT)); n++) {
+                unique = name + "-" + n;
+            }
+            outputs.put(input, outputDir.resolve(unique + "." + encoder.format()));
+        }
+        return outputs;
+    }
+
+    private static String baseName(Path input) {
+        String name = input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private static Thread worker(String name, StageBody body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    @FunctionalInterface
+    private interface StageBody {
+        void run() throws InterruptedException;
+    }
+
+    /**
+     * One image travelling through the stages.
+     */
+    private static final class Job {
+
+        /** Marks the end of a stage's input. */
+        static final Job END = new Job(null, null);
+
+        final Path input;
+        BufferedImage image;
+
+        Job(Path input, BufferedImage image) {
+            this.input = input;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Counts and timings for one stage.
+     */
+    public static final class StageStats {
+
+        private final String name;
+        private final int threads;
+        private final AtomicInteger images = new AtomicInteger();
+        private final AtomicLong pixels = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        StageStats(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+        }
+
+        void record(long nanos, long pixelCount) {
+            images.incrementAndGet();
+            pixels.addAndGet(pixelCount);
+            busyNanos.addAndGet(nanos);
+        }
+
+        /** Returns the number of images this stage completed. */
+        public int images() {
+            return images.get();
+        }
+
+        /** Returns the total time this stage's threads spent working, in nanoseconds. */
+        public long busyNanos() {
+            return busyNanos.get();
+        }
+
+        /** Returns the images per second this stage sustained across all its threads. */
+        public double imagesPerSecond() {
+            long busy = busyNanos.get();
+            return busy == 0 ? 0 : images.get() * 1e9 * threads / busy;
+        }
+
+        /** Returns the megapixels per second this stage sustained across all its threads. */
+        public double megapixelsPerSecond() {
+            long busy = busyNanos.get();
+            return busy == 0 ? 0 : pixels.get() * 1e3 * threads / busy;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-7s %2d threads  %7d images  %9.1f images/s  %9.1f MP/s",
+                                 name, threads, images(), imagesPerSecond(), megapixelsPerSecond());
+        }
+    }
+
+    /**
+     * The outcome of a batch run.
+     */
+    public static final class Report {
+
+        /** Statistics for the decode stage. */
+        public final StageStats decode;
+
+        /** Statistics for the filter stage. */
+        public final StageStats filter;
+
+        /** Statistics for the encode stage. */
+        public final StageStats encode;
+
+        private final List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        private volatile long wallNanos;
+
+        Report(int decodeThreads, int filterThreads, int encodeThreads) {
+            decode = new StageStats("decode", decodeThreads);
+            filter = new StageStats("filter", filterThreads);
+            encode = new StageStats("encode", encodeThreads);
+        }
+
+        void fail(Path input, Throwable e) {
+            failures.add(input + ": " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+        }
+
+        /** Returns one message per file that could not be processed. */
+        public List<String> failures() {
+            return new ArrayList<>(failures);
+        }
+
+        /** Returns the elapsed time of the whole run, in nanoseconds. */
+        public long wallNanos() {
+            return wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            text.append(decode).append('\n').append(filter).append('\n').append(encode).append('\n');
+            double seconds = wallNanos / 1e9;
+            text.append(String.format("total   %d images in %.2f s (%.1f images/s), %d failed",
+                                      encode.images(), seconds,
+                                      seconds == 0 ? 0 : encode.images() / seconds, failures.size()));
+            for (String failure : failures()) {
+                text.append('\n').append("  ").append(failure);
+            }
+            return text.toString();
+        }
+    }
+}
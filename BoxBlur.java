@@ -0,0 +1,190 @@
+/**
+ * A separable box blur whose cost per pixel does not depend on the radius.
+ *
+ * Each output pixel is the exact integer mean of the (2r+1) x (2r+1) window
+ * around it, the same value the original nested-loop blur produced. The window
+ * is split into a horizontal running sum per row and a vertical running sum per
+ * column, so moving the window by one pixel costs one add and one subtract per
+ * channel. Pixels outside the image are supplied by an {@link EdgeMode}.
+ *
+ * A band keeps only the column sums and one row of horizontal sums, so its
+ * working memory grows with the width alone, whatever the radius.
+ */
+public final class BoxBlur {
+
+    private BoxBlur() {
+    }
+
+    /**
+     * Blurs a buffer with a single box pass.
+     *
+     * @param src      The buffer to blur.
+     * @param radius   The blur radius in pixels; 0 returns a copy.
+     * @param edgeMode How pixels outside the image are sampled.
+     * @return A new buffer holding the blurred pixels.
+     */
+    public static PixelBuffer blur(PixelBuffer src, int radius, EdgeMode edgeMode) {
+        return blur(src, radius, edgeMode, 1);
+    }
+
+    /**
+     * Blurs a buffer with a single box pass into a caller-supplied buffer.
+     *
+     * @param src      The buffer to blur.
+     * @param radius   The blur radius in pixels; 0 copies the pixels.
+     * @param edgeMode How pixels outside the image are sampled.
+     * @param dst      The buffer receiving the result, the size of src but not src itself.
+     * @return The dst buffer.
+     */
+    public static PixelBuffer blur(PixelBuffer src, int radius, EdgeMode edgeMode, PixelBuffer dst) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Blur radius must not be negative: " + radius);
+        }
+        requireDestination(src, dst);
+        int[] in = src.pixels;
+        // Each band primes its own window, so keep bands well above the halo height
+        ParallelRows.forEachBand(src.width, src.height, 4 * (2 * radius + 1), (fromRow, toRow) ->
+                blurRows(in, dst.pixels, src.width, src.height, radius, edgeMode, fromRow, toRow));
+        return dst;
+    }
+
+    /**
+     * Blurs a buffer with one or more box passes. Three passes of radius r
+     * approximate a Gaussian with a standard deviation of about r.
+     *
+     * @param src      The buffer to blur.
+     * @param radius   The blur radius of each pass in pixels.
+     * @param edgeMode How pixels outside the image are sampled.
+     * @param passes   The number of box passes to run (at least 1).
+     * @return A new buffer holding the blurred pixels.
+     */
+    public static PixelBuffer blur(PixelBuffer src, int radius, EdgeMode edgeMode, int passes) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Blur radius must not be negative: " + radius);
+        }
+        if (passes < 1) {
+            throw new IllegalArgumentException("Blur passes must be at least 1: " + passes);
+        }
+
+        PixelBuffer current = src;
+        for (int pass = 0; pass < passes; pass++) {
+            current = blur(current, radius, edgeMode, PixelBuffer.allocate(src.width, src.height));
+        }
+        return current;
+    }
+
+    /**
+     * Checks that a destination buffer matches its source and does not share
+     * its pixels, as every pass reads source pixels after writing others.
+     */
+    static void requireDestination(PixelBuffer src, PixelBuffer dst) {
+        if (dst.width != src.width || dst.height != src.height) {
+            throw new IllegalArgumentException("Expected a " + src.width + "x" + src.height
+                    + " destination but got " + dst.width + "x" + dst.height);
+        }
+        if (dst.pixels == src.pixels) {
+            throw new IllegalArgumentException("The destination must not share the source's pixels");
+        }
+    }
+
+    /**
+     * Blurs the output rows [fromRow, toRow) of an image.
+     *
+     * The vertical window is primed from the radius rows above fromRow, so a
+     * band can be computed on its own and produces exactly the pixels a full
+     * pass would. When the window slides down, the horizontal sums of the row
+     * leaving it are computed again rather than kept, which costs a second
+     * horizontal pass but no buffer of window rows.
+     *
+     * @param src      The packed source pixels.
+     * @param dst      The packed destination pixels; only rows [fromRow, toRow) are written.
+     * @param width    The image width.
+     * @param height   The image height.
+     * @param radius   The blur radius in pixels.
+     * @param edgeMode How pixels outside the image are sampled.
+     * @param fromRow  The first output row to compute.
+     * @param toRow    One past the last output row to compute.
+     */
+    static void blurRows(int[] src, int[] dst, int width, int height, int radius,
+                         EdgeMode edgeMode, int fromRow, int toRow) {
+        if (fromRow >= toRow) {
+            return;
+        }
+        int window = 2 * radius + 1;
+        long area = (long) window * window;
+        int[] columns = edgeMode.indexTable(width, radius);
+        int[] rows = edgeMode.indexTable(height, radius);
+
+        // Horizontal sums of one row, three channels per pixel
+        int[] rowSums = new int[width * 3];
+        long[] columnSums = new long[width * 3];
+
+        // Prime the window with the rows above and including fromRow
+        for (int k = 0; k < window; k++) {
+            sumRow(src, rows[fromRow + k] * width, width, columns, window, rowSums, 0);
+            for (int i = 0; i < width * 3; i++) {
+                columnSums[i] += rowSums[i];
+            }
+        }
+
+        for (int y = fromRow; y < toRow; y++) {
+            // Write the window mean for every pixel of this row
+            int out = y * width;
+            for (int x = 0, c = 0; x < width; x++, c += 3) {
+                int red = (int) (columnSums[c] / area);
+                int green = (int) (columnSums[c + 1] / area);
+                int blue = (int) (columnSums[c + 2] / area);
+                dst[out + x] = 0xff000000 | red << 16 | green << 8 | blue;
+            }
+
+            if (y + 1 < toRow) {
+                // Slide the window down: the oldest row leaves, the next row enters
+                sumRow(src, rows[y] * width, width, columns, window, rowSums, 0);
+                for (int i = 0; i < width * 3; i++) {
+                    columnSums[i] -= rowSums[i];
+                }
+                sumRow(src, rows[y + 1 + 2 * radius] * width, width, columns, window, rowSums, 0);
+                for (int i = 0; i < width * 3; i++) {
+                    columnSums[i] += rowSums[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the horizontal window sums of one source row.
+     *
+     * @param src     The packed source pixels.
+     * @param rowBase The index of the row's first pixel in src.
+     * @param width   The image width.
+     * @param columns The edge-mode index table for the x axis.
+     * @param window  The window size, 2 * radius + 1.
+     * @param sums    The array receiving red, green and blue sums per pixel.
+     * @param offset  The index in sums of the first pixel's red sum.
+     */
+    private static void sumRow(int[] src, int rowBase, int width, int[] columns, int window,
+                               int[] sums, int offset) {
+        int red = 0;
+        int green = 0;
+        int blue = 0;
+        for (int k = 0; k < window; k++) {
+            int rgb = src[rowBase + columns[k]];
+            red += (rgb >> 16) & 0xff;
+            green += (rgb >> 8) & 0xff;
+            blue += rgb & 0xff;
+        }
+
+        for (int x = 0, c = offset; x < width; x++, c += 3) {
+            sums[c] = red;
+            sums[c + 1] = green;
+            sums[c + 2] = blue;
+            if (x + 1 < width) {
+                int leaving = src[rowBase + columns[x]];
+                int entering = src[rowBase + columns[x + window]];
+                red += ((entering >> 16) & 0xff) - ((leaving >> 16) & 0xff);
+                green += ((entering >> 8) & 0xff) - ((leaving >> 8) & 0xff);
+                blue += (entering & 0xff) - (leaving & 0xff);
+            }
+        }
+    }
+}
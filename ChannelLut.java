@@ -0,0 +1,145 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * A point operation stored as one 256-entry table per color channel.
+ *
+ * Any operation where each output channel depends only on the same input
+ * channel (brightness, contrast, the light filters, invert) compiles to a
+ * ChannelLut. Two tables compose into one by table lookup, so a whole chain
+ * of such operations costs three array reads per pixel. Compiled tables are
+ * cached by operation and parameters, so a batch that reuses the same
+ * adjustment builds its table once.
+ */
+public final class ChannelLut implements PointOp {
+
+    /** Caching stops growing past this many distinct tables. */
+    private static final int MAX_CACHED = 4096;
+
+    private static final Map<String, ChannelLut> CACHE = new ConcurrentHashMap<>();
+
+    /** The table that leaves every pixel unchanged. */
+    public static final ChannelLut IDENTITY = of(IntUnaryOperator.identity());
+
+    private final byte[] red;
+    private final byte[] green;
+    private final byte[] blue;
+
+    private ChannelLut(byte[] red, byte[] green, byte[] blue) {
+        this.red = red;
+        this.green = green;
+        this.blue = blue;
+    }
+
+    /**
+     * Builds a table that applies the same function to all three channels.
+     *
+     * @param function Maps a channel value 0-255 to its new value; results are clamped to 0-255.
+     * @return The compiled table.
+     */
+    public static ChannelLut of(IntUnaryOperator function) {
+        byte[] table = table(function);
+        return new ChannelLut(table, table, table);
+    }
+
+    /**
+     * Builds a table with a separate function per channel.
+     *
+     * @param red   The function for the red channel.
+     * @param green The function for the green channel.
+     * @param blue  The function for the blue channel.
+     * @return The compiled table.
+     */
+    public static ChannelLut of(IntUnaryOperator red, IntUnaryOperator green, IntUnaryOperator blue) {
+        return new ChannelLut(table(red), table(green), table(blue));
+    }
+
+    /**
+     * Returns the cached table for a key, compiling and caching it on first use.
+     *
+     * @param key     The operation and its parameters, e.g. "brightness:20".
+     * @param builder Compiles the table on a cache miss.
+     * @return The cached or newly compiled table.
+     */
+    public static ChannelLut cached(String key, Supplier<ChannelLut> builder) {
+        ChannelLut lut = CACHE.get(key);
+        if (lut != null) {
+            return lut;
+        }
+        lut = builder.get();
+        if (CACHE.size() < MAX_CACHED) {
+            CACHE.putIfAbsent(key, lut);
+        }
+        return lut;
+    }
+
+    /**
+     * Returns the table equivalent to applying this one and then the next.
+     *
+     * @param next The table applied afterwards.
+     * @return The composed table.
+     */
+    public ChannelLut then(ChannelLut next) {
+        return new ChannelLut(compose(red, next.red), compose(green, next.green), compose(blue, next.blue));
+    }
+
+    @Override
+    public int apply(int rgb) {
+        return 0xff000000
+                | (red[(rgb >> 16) & 0xff] & 0xff) << 16
+                | (green[(rgb >> 8) & 0xff] & 0xff) << 8
+                | (blue[rgb & 0xff] & 0xff);
+    }
+
+    @Override
+    public PointOp andThen(PointOp next) {
+        if (next instanceof ChannelLut) {
+            return then((ChannelLut) next);
+        }
+        return PointOp.super.andThen(next);
+    }
+
+    @Override
+    public void applyTo(int[] src, int[] dst, int from, int to) {
+        byte[] r = red;
+        byte[] g = green;
+        byte[] b = blue;
+        for (int i = from; i < to; i++) {
+            int rgb = src[i];
+            dst[i] = 0xff000000
+                    | (r[(rgb >> 16) & 0xff] & 0xff) << 16
+                    | (g[(rgb >> 8) & 0xff] & 0xff) << 8
+                    | (b[rgb & 0xff] & 0xff);
+        }
+    }
+
+    /**
+     * Returns the output value of one channel for an input value.
+     *
+     * @param channel 0 for red, 1 for green, 2 for blue.
+     * @param value   The input channel value 0-255.
+     * @return The output channel value 0-255.
+     */
+    public int lookup(int channel, int value) {
+        byte[] table = channel == 0 ? red : channel == 1 ? green : blue;
+        return table[value] & 0xff;
+    }
+
+    private static byte[] table(IntUnaryOperator function) {
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = (byte) PointOp.clamp(function.applyAsInt(v));
+        }
+        return table;
+    }
+
+    private static byte[] compose(byte[] first, byte[] second) {
+        byte[] table = new byte[256];
+        for (int v = 0; v < 256; v++) {
+            table[v] = second[first[v] & 0xff];
+        }
+        return table;
+    }
+}
@@ -0,0 +1,315 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * A point operation that mixes the three color channels through a 3 x 3
+ * matrix plus a per-channel offset:
+ *
+ * <pre>
+ * red'   = m[0] * red + m[1] * green + m[2] * blue + offset[0]
+ * green' = m[3] * red + m[4] * green + m[5] * blue + offset[1]
+ * blue'  = m[6] * red + m[7] * green + m[8] * blue + offset[2]
+ * </pre>
+ *
+ * Results are rounded and clamped to 0-255. Any tint, sepia tone or channel
+ * swap is a single mixer, so it costs one pass however many channels it
+ * changes. Mixers that only scale and offset each channel on its own (the
+ * light filters and tints) run as a {@link ChannelLut} and fuse with other
+ * tables in a pipeline; the others run in fixed point with three integer
+ * multiply-adds per channel.
+ *
+ * Mixers print themselves as accepted by {@link #parse(String)}:
+ *
+ * <pre>
+ * tint:R;G;B            add R, G and B to the channels
+ * gains:R;G;B           multiply the channels by R, G and B
+ * swap:ORDER            reorder the channels, e.g. swap:bgr
+ * sepia                 the common sepia tone matrix
+ * mix:m0;...;m8[;o0;o1;o2]  arbitrary matrix and offsets, row by row
+ * </pre>
+ */
+public final class ChannelMixer implements PointOp {
+
+    /** The fraction bits of the fixed-point weights. */
+    private static final int WEIGHT_BITS = 14;
+
+    /** Keeps every weighted sum of 0-255 inputs within an int. */
+    private static final double MAX_ROW_WEIGHT = 256;
+
+    private final String name;
+    private final double[] matrix;
+    private final double[] offsets;
+    private final int[] fixedMatrix;
+    private final int[] fixedOffsets;
+    private final ChannelLut lut;
+
+    private ChannelMixer(String name, double[] matrix, double[] offsets) {
+        for (int c = 0; c < 3; c++) {
+            double rowWeight = Math.abs(matrix[3 * c]) + Math.abs(matrix[3 * c + 1]) + Math.abs(matrix[3 * c + 2]);
+            if (!(rowWeight < MAX_ROW_WEIGHT) || !(Math.abs(offsets[c]) < MAX_ROW_WEIGHT * 255)) {
+                throw new IllegalArgumentException("Mixer weights out of range: " + Arrays.toString(matrix)
+                        + " + " + Arrays.toString(offsets));
+            }
+        }
+        this.name = name;
+        this.matrix = matrix;
+        this.offsets = offsets;
+        this.fixedMatrix = new int[9];
+        this.fixedOffsets = new int[3];
+        int one = 1 << WEIGHT_BITS;
+        for (int i = 0; i < 9; i++) {
+            fixedMatrix[i] = (int) Math.round(matrix[i] * one);
+        }
+        for (int c = 0; c < 3; c++) {
+            // Fold the rounding half into the offset, so each channel is one shift
+            fixedOffsets[c] = (int) Math.round(offsets[c] * one) + one / 2;
+        }
+        this.lut = isPerChannel() ? ChannelLut.cached("mix:" + this, () -> ChannelLut.of(
+                v -> (int) Math.floor(matrix[0] * v + offsets[0] + 0.5),
+                v -> (int) Math.floor(matrix[4] * v + offsets[1] + 0.5),
+                v -> (int) Math.floor(matrix[8] * v + offsets[2] + 0.5))) : null;
+    }
+
+    /**
+     * Creates a mixer from a matrix and offsets.
+     *
+     * @param matrix  The nine weights, row by row: row c gives output channel c
+     *                as a weighted sum of red, green and blue.
+     * @param offsets The three values added to red, green and blue afterwards.
+     * @return The mixer.
+     */
+    public static ChannelMixer of(double[] matrix, double[] offsets) {
+        if (matrix.length != 9 || offsets.length != 3) {
+            throw new IllegalArgumentException("Expected 9 weights and 3 offsets, got "
+                    + matrix.length + " and " + offsets.length);
+        }
+        return new ChannelMixer(null, matrix.clone(), offsets.clone());
+    }
+
+    /**
+     * Creates a mixer that adds a fixed amount to each channel, e.g. a warm
+     * tint from {@code tint(30, 15, 0)}.
+     *
+     * @param red   The amount added to red.
+     * @param green The amount added to green.
+     * @param blue  The amount added to blue.
+     * @return The mixer.
+     */
+    public static ChannelMixer tint(int red, int green, int blue) {
+        return new ChannelMixer("tint:" + red + ";" + green + ";" + blue,
+                                diagonal(1, 1, 1), new double[] {red, green, blue});
+    }
+
+    /**
+     * Creates a mixer that scales each channel by its own factor.
+     *
+     * @param red   The factor for red.
+     * @param green The factor for green.
+     * @param blue  The factor for blue.
+     * @return The mixer.
+     */
+    public static ChannelMixer gains(double red, double green, double blue) {
+        return new ChannelMixer("gains:" + number(red) + ";" + number(green) + ";" + number(blue),
+                                diagonal(red, green, blue), new double[3]);
+    }
+
+    /**
+     * Creates a mixer that reorders the channels.
+     *
+     * @param order Three of the letters r, g and b naming where the new red,
+     *              green and blue come from, e.g. "bgr" swaps red and blue.
+     * @return The mixer.
+     */
+    public static ChannelMixer swap(String order) {
+        String normalized = order.toLowerCase(Locale.ROOT);
+        if (normalized.length() != 3) {
+            throw new IllegalArgumentException("Channel order must have three letters: " + order);
+        }
+        double[] matrix = new double[9];
+        for (int c = 0; c < 3; c++) {
+            int source = "rgb".indexOf(normalized.charAt(c));
+            if (source < 0) {
+                throw new IllegalArgumentException("Unknown channel '" + normalized.charAt(c) + "' in " + order);
+            }
+            matrix[3 * c + source] = 1;
+        }
+        return new ChannelMixer("swap:" + normalized, matrix, new double[3]);
+    }
+
+    /**
+     * Returns the common sepia tone matrix.
+     *
+     * @return The mixer.
+     */
+    public static ChannelMixer sepia() {
+        return new ChannelMixer("sepia", new double[] {
+                0.393, 0.769, 0.189,
+                0.349, 0.686, 0.168,
+                0.272, 0.534, 0.131}, new double[3]);
+    }
+
+    /**
+     * Parses a mixer written as by {@link #toString()}, e.g. "tint:30;15;0",
+     * "swap:bgr" or "sepia".
+     *
+     * @param spec The mixer to parse.
+     * @return The mixer.
+     */
+    public static ChannelMixer parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        String kind = parts[0].toLowerCase(Locale.ROOT);
+        try {
+            switch (kind) {
+                case "sepia":
+                    return sepia();
+                case "swap":
+                    return swap(argument(parts, spec));
+                case "tint": {
+                    double[] values = numbers(argument(parts, spec), 3, spec);
+                    return tint((int) values[0], (int) values[1], (int) values[2]);
+                }
+                case "gains": {
+                    double[] values = numbers(argument(parts, spec), 3, spec);
+                    return gains(values[0], values[1], values[2]);
+                }
+                case "mix": {
+                    String[] values = argument(parts, spec).split(";");
+                    if (values.length != 9 && values.length != 12) {
+                        throw new IllegalArgumentException("Expected 9 weights and optionally 3 offsets: " + spec);
+                    }
+                    double[] all = numbers(argument(parts, spec), values.length, spec);
+                    return of(Arrays.copyOf(all, 9), values.length == 12 ? Arrays.copyOfRange(all, 9, 12) : new double[3]);
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown channel mixer: " + spec);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in channel mixer: " + spec, e);
+        }
+    }
+
+    /**
+     * Returns whether each output channel depends only on the same input
+     * channel, so the mixer is equivalent to a per-channel table.
+     *
+     * @return True for tints, gains and light filters.
+     */
+    public boolean isPerChannel() {
+        return matrix[1] == 0 && matrix[2] == 0 && matrix[3] == 0
+                && matrix[5] == 0 && matrix[6] == 0 && matrix[7] == 0;
+    }
+
+    /**
+     * Returns the per-channel table equivalent to this mixer, which composes
+     * with other tables into a single lookup.
+     *
+     * @return The table, or null if the mixer mixes channels.
+     */
+    public ChannelLut toLut() {
+        return lut;
+    }
+
+    @Override
+    public int apply(int rgb) {
+        if (lut != null) {
+            return lut.apply(rgb);
+        }
+        int[] m = fixedMatrix;
+        int red = (rgb >> 16) & 0xff;
+        int green = (rgb >> 8) & 0xff;
+        int blue = rgb & 0xff;
+        return 0xff000000
+                | clamp((m[0] * red + m[1] * green + m[2] * blue + fixedOffsets[0]) >> WEIGHT_BITS) << 16
+                | clamp((m[3] * red + m[4] * green + m[5] * blue + fixedOffsets[1]) >> WEIGHT_BITS) << 8
+                | clamp((m[6] * red + m[7] * green + m[8] * blue + fixedOffsets[2]) >> WEIGHT_BITS);
+    }
+
+    @Override
+    public void applyTo(int[] src, int[] dst, int from, int to) {
+        if (lut != null) {
+            lut.applyTo(src, dst, from, to);
+            return;
+        }
+        int m0 = fixedMatrix[0], m1 = fixedMatrix[1], m2 = fixedMatrix[2];
+        int m3 = fixedMatrix[3], m4 = fixedMatrix[4], m5 = fixedMatrix[5];
+        int m6 = fixedMatrix[6], m7 = fixedMatrix[7], m8 = fixedMatrix[8];
+        int o0 = fixedOffsets[0], o1 = fixedOffsets[1], o2 = fixedOffsets[2];
+        for (int i = from; i < to; i++) {
+            int rgb = src[i];
+            int red = (rgb >> 16) & 0xff;
+            int green = (rgb >> 8) & 0xff;
+            int blue = rgb & 0xff;
+            dst[i] = 0xff000000
+                    | clamp((m0 * red + m1 * green + m2 * blue + o0) >> WEIGHT_BITS) << 16
+                    | clamp((m3 * red + m4 * green + m5 * blue + o1) >> WEIGHT_BITS) << 8
+                    | clamp((m6 * red + m7 * green + m8 * blue + o2) >> WEIGHT_BITS);
+        }
+    }
+
+    @Override
+    public PointOp andThen(PointOp next) {
+        if (lut != null) {
+            return lut.andThen(next);
+        }
+        return PointOp.super.andThen(next);
+    }
+
+    /**
+     * Returns the mixer in the syntax accepted by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        if (name != null) {
+            return name;
+        }
+        StringBuilder spec = new StringBuilder("mix:");
+        for (int i = 0; i < 9; i++) {
+            spec.append(number(matrix[i])).append(';');
+        }
+        for (int c = 0; c < 3; c++) {
+            spec.append(number(offsets[c])).append(c < 2 ? ";" : "");
+        }
+        return spec.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ChannelMixer && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private static double[] diagonal(double red, double green, double blue) {
+        return new double[] {red, 0, 0, 0, green, 0, 0, 0, blue};
+    }
+
+    private static double[] numbers(String list, int count, String spec) {
+        String[] values = list.split(";");
+        if (values.length != count) {
+            throw new IllegalArgumentException("Expected " + count + " values: " + spec);
+        }
+        double[] numbers = new double[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = Double.parseDouble(values[i].trim());
+        }
+        return numbers;
+    }
+
+    private static String number(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    private static String argument(String[] parts, String spec) {
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Missing argument: " + spec);
+        }
+        return parts[1];
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
@@ -0,0 +1,281 @@
+import java.util.Arrays;
+
+/**
+ * Applies convolution kernels to pixel buffers in integer fixed point.
+ *
+ * The weights are rounded to fixed-point integers once per call, keeping
+ * their sum exact so flat areas pass through unchanged, and every tap is
+ * then an integer multiply-add per channel. How a kernel is run depends on
+ * its shape:
+ *
+ * <ul>
+ * <li>Uniform square kernels (box blurs) use the running sums of
+ *     {@link BoxBlur}, whose cost does not depend on the size at all.</li>
+ * <li>Separable (rank-1) kernels, such as the Gaussian, run as a horizontal
+ *     and a vertical 1-D pass, so an N x N kernel costs 2N multiply-adds per
+ *     channel instead of N * N. The horizontal results keep extra fraction
+ *     bits so rounding happens once, at the end.</li>
+ * <li>Other kernels run directly over the full window.</li>
+ * </ul>
+ *
+ * Rows are processed in parallel bands. Each band keeps a ring of the
+ * unpacked rows its window covers, so every source row is unpacked and
+ * filtered horizontally once per band.
+ */
+public final class Convolution {
+
+    /** The most fraction bits a fixed-point weight gets. */
+    private static final int MAX_WEIGHT_BITS = 14;
+
+    /** The fraction bits kept on horizontal results of separable kernels. */
+    private static final int INTERMEDIATE_BITS = 6;
+
+    private Convolution() {
+    }
+
+    /**
+     * Convolves a buffer with a kernel.
+     *
+     * @param src      The buffer to filter.
+     * @param kernel   The kernel to apply.
+     * @param edgeMode How pixels outside the image are sampled.
+     * @return A new buffer holding the result.
+     */
+    public static PixelBuffer apply(PixelBuffer src, ConvolutionKernel kernel, EdgeMode edgeMode) {
+        return apply(src, kernel, edgeMode, PixelBuffer.allocate(src.width, src.height));
+    }
+
+    /**
+     * Convolves a buffer with a kernel into a caller-supplied buffer, e.g. one
+     * drawn from an {@link ImageBufferPool}.
+     *
+     * @param src      The buffer to filter.
+     * @param kernel   The kernel to apply.
+     * @param edgeMode How pixels outside the image are sampled.
+     * @param dst      The buffer receiving the result, the size of src but not src itself.
+     * @return The dst buffer.
+     */
+    public static PixelBuffer apply(PixelBuffer src, ConvolutionKernel kernel, EdgeMode edgeMode, PixelBuffer dst) {
+        BoxBlur.requireDestination(src, dst);
+        if (kernel.isUniform() && kernel.width() == kernel.height()
+                && Math.abs(kernel.weight(0, 0) * kernel.width() * kernel.height() - 1) < 1e-9) {
+            return BoxBlur.blur(src, kernel.radiusX(), edgeMode, dst);
+        }
+
+        double[][] separated = kernel.separate();
+        // Each band primes its own window, so keep bands well above the halo height
+        int minRows = 4 * kernel.height();
+        if (separated != null) {
+            double[] vertical = separated[0];
+            double[] horizontal = separated[1];
+            int horizontalBits = weightBits(absSum(horizontal), 255);
+            int fraction = Math.min(INTERMEDIATE_BITS, horizontalBits);
+            long intermediateMax = (long) Math.ceil(absSum(horizontal) * 255) << fraction;
+            int verticalBits = weightBits(absSum(vertical), intermediateMax);
+            int[] horizontalWeights = quantize(horizontal, horizontalBits);
+            int[] verticalWeights = quantize(vertical, verticalBits);
+            ParallelRows.forEachBand(src.width, src.height, minRows, (fromRow, toRow) ->
+                    separableRows(src, dst, horizontalWeights, horizontalBits, fraction,
+                                  verticalWeights, verticalBits, edgeMode, fromRow, toRow));
+        } else {
+            double[] weights = new double[kernel.width() * kernel.height()];
+            for (int y = 0; y < kernel.height(); y++) {
+                for (int x = 0; x < kernel.width(); x++) {
+                    weights[y * kernel.width() + x] = kernel.weight(x, y);
+                }
+            }
+            int bits = weightBits(absSum(weights), 255);
+            int[] fixed = quantize(weights, bits);
+            ParallelRows.forEachBand(src.width, src.height, minRows, (fromRow, toRow) ->
+                    fullRows(src, dst, fixed, kernel.width(), kernel.height(), bits, edgeMode, fromRow, toRow));
+        }
+        return dst;
+    }
+
+    /**
+     * Computes the output rows [fromRow, toRow) of a separable kernel. The
+     * ring holds the horizontally filtered rows of the vertical window, each
+     * stored as three channel planes of width values.
+     */
+    private static void separableRows(PixelBuffer src, PixelBuffer dst, int[] horizontal, int horizontalBits,
+                                      int fraction, int[] vertical, int verticalBits, EdgeMode edgeMode,
+                                      int fromRow, int toRow) {
+        int width = src.width;
+        int radiusX = horizontal.length / 2;
+        int radiusY = vertical.length / 2;
+        int window = vertical.length;
+        int[] columns = edgeMode.indexTable(width, radiusX);
+        int[] rows = edgeMode.indexTable(src.height, radiusY);
+        int padded = width + 2 * radiusX;
+        int[] unpacked = new int[3 * padded];
+        int[] ring = new int[window * 3 * width];
+        int[] sums = new int[3 * width];
+        int shift = horizontalBits - fraction;
+        int round = shift > 0 ? 1 << (shift - 1) : 0;
+
+        // Row p of the padded image (source row rows[p]) lives in ring slot p % window
+        for (int p = fromRow; p < fromRow + window - 1; p++) {
+            unpack(src.pixels, rows[p] * width, columns, unpacked, 0, padded);
+            horizontalPass(unpacked, padded, horizontal, ring, (p % window) * 3 * width, width, shift, round);
+        }
+        for (int y = fromRow; y < toRow; y++) {
+            int p = y + window - 1;
+            unpack(src.pixels, rows[p] * width, columns, unpacked, 0, padded);
+            horizontalPass(unpacked, padded, horizontal, ring, (p % window) * 3 * width, width, shift, round);
+
+            Arrays.fill(sums, 0);
+            for (int k = 0; k < window; k++) {
+                int weight = vertical[k];
+                if (weight == 0) {
+                    continue;
+                }
+                int base = ((y + k) % window) * 3 * width;
+                for (int i = 0; i < sums.length; i++) {
+                    sums[i] += weight * ring[base + i];
+                }
+            }
+            pack(sums, width, verticalBits + fraction, dst.pixels, y * width);
+        }
+    }
+
+    /**
+     * Filters one unpacked row horizontally into a ring slot, keeping
+     * fraction bits beyond the integer result.
+     */
+    private static void horizontalPass(int[] unpacked, int padded, int[] weights, int[] ring, int slot,
+                                       int width, int shift, int round) {
+        for (int c = 0; c < 3; c++) {
+            int in = c * padded;
+            int out = slot + c * width;
+            Arrays.fill(ring, out, out + width, round);
+            // One tap at a time across the row, which the JIT can vectorize
+            for (int k = 0; k < weights.length; k++) {
+                int weight = weights[k];
+                if (weight == 0) {
+                    continue;
+                }
+                for (int x = 0; x < width; x++) {
+                    ring[out + x] += weight * unpacked[in + k + x];
+                }
+            }
+            for (int x = 0; x < width; x++) {
+                ring[out + x] >>= shift;
+            }
+        }
+    }
+
+    /**
+     * Computes the output rows [fromRow, toRow) of a kernel that is not
+     * separable. The ring holds the unpacked source rows of the window.
+     */
+    private static void fullRows(PixelBuffer src, PixelBuffer dst, int[] weights, int kernelWidth, int kernelHeight,
+                                 int bits, EdgeMode edgeMode, int fromRow, int toRow) {
+        int width = src.width;
+        int radiusX = kernelWidth / 2;
+        int radiusY = kernelHeight / 2;
+        int[] columns = edgeMode.indexTable(width, radiusX);
+        int[] rows = edgeMode.indexTable(src.height, radiusY);
+        int padded = width + 2 * radiusX;
+        int[] ring = new int[kernelHeight * 3 * padded];
+        int[] sums = new int[3 * width];
+
+        for (int p = fromRow; p < fromRow + kernelHeight - 1; p++) {
+            unpack(src.pixels, rows[p] * width, columns, ring, (p % kernelHeight) * 3 * padded, padded);
+        }
+        for (int y = fromRow; y < toRow; y++) {
+            int p = y + kernelHeight - 1;
+            unpack(src.pixels, rows[p] * width, columns, ring, (p % kernelHeight) * 3 * padded, padded);
+
+            Arrays.fill(sums, 0);
+            for (int ky = 0; ky < kernelHeight; ky++) {
+                int base = ((y + ky) % kernelHeight) * 3 * padded;
+                for (int kx = 0; kx < kernelWidth; kx++) {
+                    int weight = weights[ky * kernelWidth + kx];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    for (int c = 0; c < 3; c++) {
+                        int in = base + c * padded + kx;
+                        int out = c * width;
+                        for (int x = 0; x < width; x++) {
+                            sums[out + x] += weight * ring[in + x];
+                        }
+                    }
+                }
+            }
+            pack(sums, width, bits, dst.pixels, y * width);
+        }
+    }
+
+    /**
+     * Splits one source row, padded by the edge mode, into red, green and blue
+     * planes of padded values each, starting at offset.
+     */
+    private static void unpack(int[] pixels, int rowBase, int[] columns, int[] planes, int offset, int padded) {
+        for (int i = 0; i < padded; i++) {
+            int rgb = pixels[rowBase + columns[i]];
+            planes[offset + i] = (rgb >> 16) & 0xff;
+            planes[offset + padded + i] = (rgb >> 8) & 0xff;
+            planes[offset + 2 * padded + i] = rgb & 0xff;
+        }
+    }
+
+    /**
+     * Rounds fixed-point channel sums to 0-255 and packs them into opaque pixels.
+     */
+    private static void pack(int[] sums, int width, int bits, int[] pixels, int out) {
+        int round = 1 << (bits - 1);
+        for (int x = 0; x < width; x++) {
+            int red = clamp((sums[x] + round) >> bits);
+            int green = clamp((sums[width + x] + round) >> bits);
+            int blue = clamp((sums[2 * width + x] + round) >> bits);
+            pixels[out + x] = 0xff000000 | red << 16 | green << 8 | blue;
+        }
+    }
+
+    /**
+     * Returns how many fraction bits weights summing to absSum in magnitude can
+     * have without their products with inputs up to inputMax overflowing an int.
+     */
+    private static int weightBits(double absSum, long inputMax) {
+        int bits = MAX_WEIGHT_BITS;
+        while (bits > 1 && absSum * inputMax * (1L << bits) >= Integer.MAX_VALUE / 2) {
+            bits--;
+        }
+        return bits;
+    }
+
+    /**
+     * Rounds weights to fixed point, then corrects the largest one so the
+     * fixed-point weights add up to the rounded sum of the exact weights.
+     */
+    private static int[] quantize(double[] weights, int bits) {
+        int[] fixed = new int[weights.length];
+        double scale = 1 << bits;
+        double sum = 0;
+        long fixedSum = 0;
+        int largest = 0;
+        for (int i = 0; i < weights.length; i++) {
+            fixed[i] = (int) Math.round(weights[i] * scale);
+            sum += weights[i];
+            fixedSum += fixed[i];
+            if (Math.abs(weights[i]) > Math.abs(weights[largest])) {
+                largest = i;
+            }
+        }
+        fixed[largest] += (int) (Math.round(sum * scale) - fixedSum);
+        return fixed;
+    }
+
+    private static double absSum(double[] weights) {
+        double sum = 0;
+        for (double weight : weights) {
+            sum += Math.abs(weight);
+        }
+        return sum;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
@@ -0,0 +1,357 @@
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * An immutable rectangular convolution kernel with odd side lengths.
+ *
+ * The kernel is applied as a correlation: the weight at (kx, ky) multiplies
+ * the pixel at (x + kx - radiusX, y + ky - radiusY). Named kernels print
+ * themselves by name; others print their weights, and either form is accepted
+ * by {@link #parse(String)}.
+ *
+ * <pre>
+ * gaussian:R   Gaussian of radius R (standard deviation R / 3), (2R+1) x (2R+1), R up to MAX_RADIUS
+ * box:R        unweighted mean of the (2R+1) x (2R+1) window, R up to MAX_BOX_RADIUS
+ * sharpen      3 x 3 sharpen
+ * edges        3 x 3 Laplacian edge detector
+ * emboss       3 x 3 emboss
+ * WxH:w0;w1;...  arbitrary weights, row by row
+ * </pre>
+ */
+public final class ConvolutionKernel {
+
+    /**
+     * The largest Gaussian radius. A separable pass keeps 2R+1 filtered rows
+     * per band, so this bounds the working memory of a request.
+     */
+    public static final int MAX_RADIUS = 256;
+
+    /**
+     * The largest box radius. Box kernels run on running sums, so their memory
+     * does not grow with the radius, but priming a band's window reads
+     * (2R+1) rows of 2R+1 pixels, so this bounds the time a request can take.
+     */
+    public static final int MAX_BOX_RADIUS = 1 << 12;
+
+    private final String name;
+    private final int width;
+    private final int height;
+    /** The weights row by row, or null for the box and Gaussian presets. */
+    private final double[] weights;
+    /** The normalized 1-D weights of a Gaussian, whose outer product is the kernel. */
+    private final double[] line;
+
+    private ConvolutionKernel(String name, int width, int height, double[] weights, double[] line) {
+        this.name = name;
+        this.width = width;
+        this.height = height;
+        this.weights = weights;
+        this.line = line;
+    }
+
+    /**
+     * Creates a kernel from its weights.
+     *
+     * @param width   The kernel width, odd.
+     * @param height  The kernel height, odd.
+     * @param weights The width * height weights, row by row.
+     * @return The kernel.
+     */
+    public static ConvolutionKernel of(int width, int height, double... weights) {
+        if (width < 1 || height < 1 || width % 2 == 0 || height % 2 == 0) {
+            throw new IllegalArgumentException("Kernel sides must be odd and positive: " + width + "x" + height);
+        }
+        if ((long) width * height != weights.length) {
+            throw new IllegalArgumentException("Expected " + (long) width * height + " kernel weights, got " + weights.length);
+        }
+        return new ConvolutionKernel(null, width, height, weights.clone(), null);
+    }
+
+    /**
+     * Creates a normalized Gaussian kernel.
+     *
+     * @param radius The kernel radius, 0 to {@link #MAX_RADIUS}; the standard deviation is radius / 3.
+     * @return A (2 * radius + 1) square kernel.
+     */
+    public static ConvolutionKernel gaussian(int radius) {
+        checkRadius(radius, MAX_RADIUS);
+        double sigma = Math.max(radius, 1) / 3.0;
+        int size = 2 * radius + 1;
+        double[] line = new double[size];
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            line[i] = Math.exp(-(double) (i - radius) * (i - radius) / (2 * sigma * sigma));
+            sum += line[i];
+        }
+        for (int i = 0; i < size; i++) {
+            line[i] /= sum;
+        }
+        return new ConvolutionKernel("gaussian:" + radius, size, size, null, line);
+    }
+
+    /**
+     * Creates an unweighted box kernel, which the engine runs with running sums.
+     *
+     * @param radius The kernel radius, 0 to {@link #MAX_BOX_RADIUS}.
+     * @return A (2 * radius + 1) square kernel.
+     */
+    public static ConvolutionKernel box(int radius) {
+        checkRadius(radius, MAX_BOX_RADIUS);
+        int size = 2 * radius + 1;
+        return new ConvolutionKernel("box:" + radius, size, size, null, null);
+    }
+
+    /** Returns a 3 x 3 kernel that sharpens edges and keeps flat areas unchanged. */
+    public static ConvolutionKernel sharpen() {
+        return new ConvolutionKernel("sharpen", 3, 3, new double[] {0, -1, 0, -1, 5, -1, 0, -1, 0}, null);
+    }
+
+    /** Returns a 3 x 3 Laplacian kernel that turns flat areas black and edges bright. */
+    public static ConvolutionKernel edges() {
+        return new ConvolutionKernel("edges", 3, 3, new double[] {-1, -1, -1, -1, 8, -1, -1, -1, -1}, null);
+    }
+
+    /** Returns a 3 x 3 kernel that gives a relief effect lit from the top left. */
+    public static ConvolutionKernel emboss() {
+        return new ConvolutionKernel("emboss", 3, 3, new double[] {-2, -1, 0, -1, 1, 1, 0, 1, 2}, null);
+    }
+
+    /**
+     * Parses a kernel written as by {@link #toString()}, e.g. "gaussian:15",
+     * "sharpen" or "3x3:0;-1;0;-1;5;-1;0;-1;0".
+     *
+     * @param spec The kernel to parse.
+     * @return The kernel.
+     */
+    public static ConvolutionKernel parse(String spec) {
+        String[] parts = spec.trim().split(":");
+        String kind = parts[0].toLowerCase(Locale.ROOT);
+        try {
+            switch (kind) {
+                case "gaussian":
+                    return gaussian(Integer.parseInt(argument(parts, spec)));
+                case "box":
+                    return box(Integer.parseInt(argument(parts, spec)));
+                case "sharpen":
+                    return sharpen();
+                case "edges":
+                    return edges();
+                case "emboss":
+                    return emboss();
+                default:
+                    String[] size = kind.split("x");
+                    if (size.length != 2) {
+                        throw new IllegalArgumentException("Unknown kernel: " + spec);
+                    }
+                    String[] values = argument(parts, spec).split(";");
+                    double[] weights = new double[values.length];
+                    for (int i = 0; i < values.length; i++) {
+                        weights[i] = Double.parseDouble(values[i].trim());
+                    }
+                    return of(Integer.parseInt(size[0]), Integer.parseInt(size[1]), weights);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in kernel: " + spec, e);
+        }
+    }
+
+    /** Returns the kernel width. */
+    public int width() {
+        return width;
+    }
+
+    /** Returns the kernel height. */
+    public int height() {
+        return height;
+    }
+
+    /** Returns how many columns the kernel reaches left and right of its center. */
+    public int radiusX() {
+        return width / 2;
+    }
+
+    /** Returns how many rows the kernel reaches above and below its center. */
+    public int radiusY() {
+        return height / 2;
+    }
+
+    /**
+     * Returns the weight at a kernel position.
+     *
+     * @param x The column, 0 to width - 1.
+     * @param y The row, 0 to height - 1.
+     * @return The weight.
+     */
+    public double weight(int x, int y) {
+        if (weights != null) {
+            return weights[y * width + x];
+        }
+        if (line != null) {
+            return line[y] * line[x];
+        }
+        return 1.0 / ((double) width * height);
+    }
+
+    /**
+     * Returns whether every weight is the same, so a running sum can compute
+     * the kernel at a cost independent of its size.
+     *
+     * @return True for box kernels.
+     */
+    public boolean isUniform() {
+        double[] values = weights != null ? weights : line;
+        if (values == null) {
+            return true;
+        }
+        for (double value : values) {
+            if (value != values[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the kernel into a column and a row vector whose outer product
+     * gives back the kernel, if it has rank 1.
+     *
+     * @return The vertical weights at [0] and the horizontal weights at [1],
+     *         or null if the kernel is not separable.
+     */
+    public double[][] separate() {
+        if (weights == null) {
+            double[] vertical = line != null ? line.clone() : new double[height];
+            double[] horizontal = line != null ? line.clone() : new double[width];
+            if (line == null) {
+                Arrays.fill(vertical, 1.0 / height);
+                Arrays.fill(horizontal, 1.0 / width);
+            }
+            return new double[][] {vertical, horizontal};
+        }
+        // Take the largest weight as the pivot, so the division is well conditioned
+        int pivot = 0;
+        double largest = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (Math.abs(weights[i]) > largest) {
+                largest = Math.abs(weights[i]);
+                pivot = i;
+            }
+        }
+        if (largest == 0) {
+            return null;
+        }
+        int pivotX = pivot % width;
+        int pivotY = pivot / width;
+        double[] vertical = new double[height];
+        double[] horizontal = new double[width];
+        for (int y = 0; y < height; y++) {
+            vertical[y] = weights[y * width + pivotX];
+        }
+        for (int x = 0; x < width; x++) {
+            horizontal[x] = weights[pivotY * width + x] / weights[pivot];
+        }
+        double tolerance = largest * 1e-9;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (Math.abs(vertical[y] * horizontal[x] - weights[y * width + x]) > tolerance) {
+                    return null;
+                }
+            }
+        }
+        return new double[][] {vertical, horizontal};
+    }
+
+    /**
+     * Returns the kernel that has the same effect on a rotated or flipped
+     * image, i.e. this kernel remapped like an image by the orientation.
+     *
+     * @param orientation The rotation or flip the image undergoes.
+     * @return The re-oriented kernel; this kernel for the identity.
+     */
+    public ConvolutionKernel oriented(Orientation orientation) {
+        if (orientation == Orientation.IDENTITY || weights == null) {
+            // The presets without stored weights are square and symmetric
+            return this;
+        }
+        int dstWidth = orientation.swapAxes ? height : width;
+        int dstHeight = orientation.swapAxes ? width : height;
+        double[] remapped = new double[weights.length];
+        for (int y = 0; y < dstHeight; y++) {
+            for (int x = 0; x < dstWidth; x++) {
+                // Same mapping as Orientation.remapRows
+                int sx = orientation.swapAxes ? y : x;
+                int sy = orientation.swapAxes ? x : y;
+                if (orientation.flipX) {
+                    sx = width - 1 - sx;
+                }
+                if (orientation.flipY) {
+                    sy = height - 1 - sy;
+                }
+                remapped[y * dstWidth + x] = weights[sy * width + sx];
+            }
+        }
+        if (dstWidth == width && Arrays.equals(remapped, weights)) {
+            return this;
+        }
+        return new ConvolutionKernel(null, dstWidth, dstHeight, remapped, null);
+    }
+
+    /**
+     * Returns the kernel for an image scaled by the given factor: Gaussian and
+     * box radii are scaled, the fixed 3 x 3 kernels are kept.
+     *
+     * @param scale The ratio of the new image size to the original.
+     * @return The scaled kernel.
+     */
+    ConvolutionKernel scaled(double scale) {
+        if (name != null && name.startsWith("gaussian:")) {
+            return gaussian((int) Math.round(radiusX() * scale));
+        }
+        if (name != null && name.startsWith("box:")) {
+            return box((int) Math.round(radiusX() * scale));
+        }
+        return this;
+    }
+
+    /**
+     * Returns the kernel in the syntax accepted by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        if (name != null) {
+            return name;
+        }
+        StringBuilder spec = new StringBuilder().append(width).append('x').append(height).append(':');
+        for (int i = 0; i < weights.length; i++) {
+            if (i > 0) {
+                spec.append(';');
+            }
+            double weight = weights[i];
+            spec.append(weight == Math.rint(weight) ? Long.toString((long) weight) : Double.toString(weight));
+        }
+        return spec.toString();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof ConvolutionKernel && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    private static void checkRadius(int radius, int max) {
+        if (radius < 0 || radius > max) {
+            throw new IllegalArgumentException("Kernel radius must be between 0 and " + max + ": " + radius);
+        }
+    }
+
+    private static String argument(String[] parts, String spec) {
+        if (parts.length < 2) {
+            throw new IllegalArgumentException("Missing argument: " + spec);
+        }
+        return parts[1];
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * How neighborhood filters sample pixels that fall outside the image.
+ */
+public enum EdgeMode {
+
+    /** Repeats the nearest edge pixel: ... 0 0 | 0 1 2 ... */
+    CLAMP,
+
+    /** Reflects about the edge pixel without repeating it: ... 2 1 | 0 1 2 ... */
+    MIRROR,
+
+    /**
+     * Continues with the pixels of the opposite edge, as if the image were
+     * tiled: ... n-2 n-1 | 0 1 2 ... Filters with this mode read across the
+     * whole image, so they cannot be computed from a region or strip alone.
+     */
+    WRAP;
+
+    /**
+     * Maps a coordinate that may lie outside [0, size) onto a valid one.
+     *
+     * @param index The coordinate to map.
+     * @param size  The number of valid coordinates along this axis.
+     * @return A coordinate within [0, size).
+     */
+    public int map(int index, int size) {
+        if (index >= 0 && index < size) {
+            return index;
+        }
+        switch (this) {
+            case MIRROR:
+                if (size == 1) {
+                    return 0;
+                }
+                // Reflection repeats with a period of 2 * (size - 1)
+                int period = 2 * (size - 1);
+                int folded = Math.floorMod(index, period);
+                return folded < size ? folded : period - folded;
+            case WRAP:
+                return Math.floorMod(index, size);
+            case CLAMP:
+            default:
+                return index < 0 ? 0 : size - 1;
+        }
+    }
+
+    /**
+     * Builds a lookup table that maps the padded range [-radius, size + radius)
+     * onto valid coordinates, so inner loops can index it without branching.
+     *
+     * @param size   The number of valid coordinates along this axis.
+     * @param radius The number of padding coordinates on each side.
+     * @return A table where entry i holds the mapped coordinate of i - radius.
+     */
+    public int[] indexTable(int size, int radius) {
+        int[] table = new int[size + 2 * radius];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = map(i - radius, size);
+        }
+        return table;
+    }
+}
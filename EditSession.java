@@ -0,0 +1,227 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An undoable sequence of edits to one image.
+ *
+ * The session keeps the source pixels once plus a log of the operations
+ * applied, each recorded as an {@link ImagePipeline}. Instead of an image per
+ * step it keeps raster checkpoints every few steps, within a memory budget,
+ * and undo and redo rebuild the wanted state by replaying the log from the
+ * nearest checkpoint. Steps that have an exact inverse (rotations, flips and
+ * color inversion) are undone by applying the inverse to the current image,
+ * without replaying anything.
+ *
+ * Buffers are never modified once produced, so checkpoints share them with the
+ * current image rather than copying.
+ *
+ * <pre>
+ * EditSession session = new EditSession(image, 512L * 1024 * 1024);
+ * session.apply("brightness:20");
+ * session.apply("blur:3");
+ * session.undo();                       // replays brightness:20 from the source
+ * session.redo();
+ * BufferedImage result = session.image();
+ * </pre>
+ */
+public final class EditSession {
+
+    private final PixelBuffer source;
+    private final long checkpointBudget;
+    private final int checkpointInterval;
+    private final List<ImagePipeline> log = new ArrayList<>();
+    private final TreeMap<Integer, PixelBuffer> checkpoints = new TreeMap<>();
+    private PixelBuffer current;
+    private int position;
+
+    /**
+     * Starts a session that checkpoints every fourth step.
+     *
+     * @param sourceImage      The image to edit; its pixels are copied once.
+     * @param checkpointBudget The most memory the checkpoints may hold, in bytes.
+     */
+    public EditSession(BufferedImage sourceImage, long checkpointBudget) {
+        this(sourceImage, checkpointBudget, 4);
+    }
+
+    /**
+     * Starts a session.
+     *
+     * @param sourceImage        The image to edit; its pixels are copied once.
+     * @param checkpointBudget   The most memory the checkpoints may hold, in bytes.
+     * @param checkpointInterval Keep a checkpoint after every this many steps.
+     */
+    public EditSession(BufferedImage sourceImage, long checkpointBudget, int checkpointInterval) {
+        if (checkpointBudget < 0 || checkpointInterval < 1) {
+            throw new IllegalArgumentException("Invalid checkpoint budget " + checkpointBudget
+                    + " or interval " + checkpointInterval);
+        }
+        PixelBuffer pixels = PixelBuffer.of(sourceImage);
+        // Detach from the caller's image in case it is shared with the raster
+        this.source = PixelBuffer.wrap(pixels.width, pixels.height, pixels.pixels.clone());
+        this.checkpointBudget = checkpointBudget;
+        this.checkpointInterval = checkpointInterval;
+        this.current = source;
+    }
+
+    /**
+     * Applies an operation chain written as for {@link ImagePipeline#parse(String)}.
+     *
+     * @param spec The operations to apply, e.g. "brightness:20" or "rotate:cw".
+     */
+    public void apply(String spec) {
+        apply(ImagePipeline.parse(spec));
+    }
+
+    /**
+     * Applies operations as one step. Any steps that had been undone are discarded.
+     *
+     * @param pipeline The operations to apply.
+     */
+    public void apply(ImagePipeline pipeline) {
+        if (pipeline.isEmpty()) {
+            return;
+        }
+        log.subList(position, log.size()).clear();
+        checkpoints.tailMap(position, false).clear();
+        log.add(pipeline);
+        current = pipeline.apply(current);
+        position++;
+        checkpoint();
+    }
+
+    /**
+     * Returns whether there is a step to undo.
+     *
+     * @return True if undo would change the image.
+     */
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    /**
+     * Returns whether there is an undone step to redo.
+     *
+     * @return True if redo would change the image.
+     */
+    public boolean canRedo() {
+        return position < log.size();
+    }
+
+    /**
+     * Reverts the most recent step.
+     *
+     * @return False if there was nothing to undo.
+     */
+    public boolean undo() {
+        if (!canUndo()) {
+            return false;
+        }
+        ImagePipeline inverse = log.get(position - 1).inverse();
+        position--;
+        current = inverse != null ? inverse.apply(current) : rebuild(position);
+        return true;
+    }
+
+    /**
+     * Re-applies the most recently undone step.
+     *
+     * @return False if there was nothing to redo.
+     */
+    public boolean redo() {
+        if (!canRedo()) {
+            return false;
+        }
+        PixelBuffer checkpoint = checkpoints.get(position + 1);
+        current = checkpoint != null ? checkpoint : log.get(position).apply(current);
+        position++;
+        checkpoint();
+        return true;
+    }
+
+    /**
+     * Returns the image as of the current step. The image shares the session's
+     * pixels and must not be modified.
+     *
+     * @return A TYPE_INT_RGB view of the current state.
+     */
+    public BufferedImage image() {
+        return current.toImage(BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Returns the operations applied so far, including undone ones, in the
+     * syntax accepted by {@link ImagePipeline#parse(String)}.
+     *
+     * @return One chain per step.
+     */
+    public List<String> history() {
+        List<String> history = new ArrayList<>(log.size());
+        for (ImagePipeline step : log) {
+            history.add(step.toString());
+        }
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Returns how many steps of the history are currently applied.
+     *
+     * @return The current step, 0 for the source image.
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * Returns the memory held by checkpoints.
+     *
+     * @return The checkpoint size in bytes.
+     */
+    public long checkpointBytes() {
+        long bytes = 0;
+        for (PixelBuffer checkpoint : checkpoints.values()) {
+            bytes += bytes(checkpoint);
+        }
+        return bytes;
+    }
+
+    /**
+     * Recomputes the image at a step by replaying the log from the nearest
+     * earlier checkpoint, or from the source.
+     */
+    private PixelBuffer rebuild(int step) {
+        Map.Entry<Integer, PixelBuffer> start = checkpoints.floorEntry(step);
+        int from = start == null ? 0 : start.getKey();
+        PixelBuffer pixels = start == null ? source : start.getValue();
+        for (int i = from; i < step; i++) {
+            pixels = log.get(i).apply(pixels);
+        }
+        return pixels;
+    }
+
+    /**
+     * Keeps the current image if this step is due a checkpoint, then drops the
+     * checkpoints farthest from the current step until the budget is met.
+     */
+    private void checkpoint() {
+        if (position % checkpointInterval != 0 || checkpoints.containsKey(position)) {
+            return;
+        }
+        checkpoints.put(position, current);
+        long total = checkpointBytes();
+        while (total > checkpointBudget && !checkpoints.isEmpty()) {
+            int first = checkpoints.firstKey();
+            int last = checkpoints.lastKey();
+            int farthest = position - first >= last - position ? first : last;
+            total -= bytes(checkpoints.remove(farthest));
+        }
+    }
+
+    private static long bytes(PixelBuffer pixels) {
+        return (long) pixels.pixels.length * Integer.BYTES;
+    }
+}
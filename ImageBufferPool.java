@@ -0,0 +1,150 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * A bounded pool of BufferedImages keyed by width, height and type.
+ *
+ * Long-running processes that repeatedly produce images of the same shape
+ * can release finished images back to the pool and acquire them again as
+ * destinations, instead of allocating (and later collecting) a new raster for
+ * every call. Images handed out by {@link #acquire} have undefined contents.
+ *
+ * {@link ImagePipeline#apply(BufferedImage, ImageBufferPool)} draws its
+ * buffers from a pool, which the HTTP service and the batch processor use with
+ * the shared pool. Callers that fill destination images themselves, e.g.
+ * through the destination-image overloads of BasicImageEditor, can acquire
+ * them here too.
+ */
+public final class ImageBufferPool {
+
+    private static final ImageBufferPool SHARED = new ImageBufferPool(256L * 1024 * 1024);
+
+    private final long maxBytes;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private long pooledBytes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a pool that holds at most the given number of raster bytes.
+     *
+     * @param maxBytes The most raster memory the pool may keep idle.
+     */
+    public ImageBufferPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the process-wide pool, which keeps up to 256 MB of idle rasters.
+     *
+     * @return The shared pool.
+     */
+    public static ImageBufferPool shared() {
+        return SHARED;
+    }
+
+    /**
+     * Returns an idle image of the given shape, or a new one if none is pooled.
+     *
+     * @param width     The image width.
+     * @param height    The image height.
+     * @param imageType The BufferedImage type.
+     * @return An image whose pixel contents are undefined.
+     */
+    public BufferedImage acquire(int width, int height, int imageType) {
+        synchronized (this) {
+            // Most recently released first, as it is the likeliest to still be in cache
+            for (Iterator<Entry> it = entries.descendingIterator(); it.hasNext(); ) {
+                Entry entry = it.next();
+                if (entry.matches(width, height, imageType)) {
+                    it.remove();
+                    pooledBytes -= entry.bytes;
+                    hits++;
+                    return entry.image;
+                }
+            }
+            misses++;
+        }
+        return new BufferedImage(width, height, imageType);
+    }
+
+    /**
+     * Returns an image to the pool. The caller must not use it afterwards.
+     * The oldest idle images are dropped when the pool exceeds its budget.
+     *
+     * @param image The image to return.
+     * @throws IllegalArgumentException If the image is already in the pool.
+     */
+    public void release(BufferedImage image) {
+        Objects.requireNonNull(image, "image");
+        long bytes = rasterBytes(image);
+        if (bytes > maxBytes || image.getType() == BufferedImage.TYPE_CUSTOM) {
+            return;
+        }
+        synchronized (this) {
+            for (Entry entry : entries) {
+                if (entry.image == image) {
+                    // Pooling it twice would hand the same raster to two callers
+                    throw new IllegalArgumentException("Image was already released to the pool");
+                }
+            }
+            entries.addLast(new Entry(image, bytes));
+            pooledBytes += bytes;
+            while (pooledBytes > maxBytes) {
+                pooledBytes -= entries.removeFirst().bytes;
+            }
+        }
+    }
+
+    /**
+     * Drops every idle image.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        pooledBytes = 0;
+    }
+
+    /** Returns the raster bytes currently held idle. */
+    public synchronized long pooledBytes() {
+        return pooledBytes;
+    }
+
+    /** Returns how many acquisitions were served from the pool. */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns how many acquisitions had to allocate a new image. */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Estimates the memory held by an image's raster.
+     *
+     * @param image The image to measure.
+     * @return The size of its data buffer in bytes.
+     */
+    static long rasterBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    private static final class Entry {
+
+        final BufferedImage image;
+        final long bytes;
+
+        Entry(BufferedImage image, long bytes) {
+            this.image = image;
+            this.bytes = bytes;
+        }
+
+        boolean matches(int width, int height, int imageType) {
+            return image.getWidth() == width && image.getHeight() == height && image.getType() == imageType;
+        }
+    }
+}
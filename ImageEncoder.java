@@ -0,0 +1,565 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.plugins.jpeg.JPEGImageWriteParam;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Encodes images with explicit writer settings.
+ *
+ * An encoder is an immutable set of options for one format: JPEG quality,
+ * progressive scans, optimized Huffman tables and chroma subsampling, or the
+ * PNG deflate level. The "raw" format stores a {@link MappedRaster}, which
+ * costs no encoding at all and suits intermediates that are read back.
+ *
+ * ImageWriter instances are expensive to look up and create, so each thread
+ * keeps one per format and reuses it. Files are written through a buffered
+ * FileChannel rather than ImageIO's default stream, which would spill the
+ * output to a temporary cache file first. {@link #writeAsync} runs the encode
+ * on a dedicated executor, so the caller can filter the next image meanwhile.
+ *
+ * <pre>
+ * ImageEncoder jpeg = ImageEncoder.parse("jpg:quality=0.85,progressive,optimize,chroma=444");
+ * jpeg.write(image, Paths.get("out.jpg"));
+ * ImageEncoder.of("png").deflateLevel(1).write(intermediate, Paths.get("stage1.png"));
+ * </pre>
+ */
+public final class ImageEncoder {
+
+    /** The format name of {@link MappedRaster} files. */
+    public static final String RAW = "raw";
+
+    /** How much of the color resolution a JPEG keeps, relative to the luma. */
+    public enum ChromaSubsampling {
+        /** Full color resolution. */
+        S444("444", 1, 1),
+        /** Half the horizontal color resolution. */
+        S422("422", 2, 1),
+        /** Half the color resolution in both directions, the writer's default. */
+        S420("420", 2, 2);
+
+        private final String spec;
+        private final int horizontal;
+        private final int vertical;
+
+        ChromaSubsampling(String spec, int horizontal, int vertical) {
+            this.spec = spec;
+            this.horizontal = horizontal;
+            this.vertical = vertical;
+        }
+
+        static ChromaSubsampling parse(String spec) {
+            for (ChromaSubsampling value : values()) {
+                if (value.spec.equals(spec)) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Unknown chroma subsampling: " + spec + " (use 444, 422 or 420)");
+        }
+    }
+
+    private static final String JPEG_METADATA = "javax_imageio_jpeg_image_1.0";
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final ThreadLocal<Map<String, ImageWriter>> WRITERS = ThreadLocal.withInitial(HashMap::new);
+
+    private final String format;
+    private final float quality;
+    private final boolean progressive;
+    private final boolean optimizeHuffman;
+    private final ChromaSubsampling chroma;
+    private final int deflateLevel;
+
+    private ImageEncoder(String format, float quality, boolean progressive, boolean optimizeHuffman,
+                         ChromaSubsampling chroma, int deflateLevel) {
+        this.format = format;
+        this.quality = quality;
+        this.progressive = progressive;
+        this.optimizeHuffman = optimizeHuffman;
+        this.chroma = chroma;
+        this.deflateLevel = deflateLevel;
+    }
+
+    /**
+     * Returns an encoder for a format with the writer's default settings.
+     *
+     * @param format An ImageIO format name such as "jpg" or "png", or "raw".
+     * @return The encoder.
+     */
+    public static ImageEncoder of(String format) {
+        String name = format.toLowerCase(Locale.ROOT);
+        if (!name.equals(RAW) && !ImageIO.getImageWritersByFormatName(name).hasNext()) {
+            throw new IllegalArgumentException("No ImageIO writer for format " + format);
+        }
+        return new ImageEncoder(name, -1, false, false, null, -1);
+    }
+
+    /**
+     * Parses a format with options, e.g. "jpg:quality=0.85,progressive,optimize,chroma=444"
+     * or "png:deflate=1". Options: quality (0-1), progressive, optimize and
+     * chroma (444, 422 or 420) for JPEG; deflate (0-9) for PNG.
+     *
+     * @param spec The format name, optionally followed by a colon and options.
+     * @return The encoder.
+     */
+    public static ImageEncoder parse(String spec) {
+        int colon = spec.indexOf(':');
+        ImageEncoder encoder = of(colon < 0 ? spec.trim() : spec.substring(0, colon).trim());
+        if (colon < 0) {
+            return encoder;
+        }
+        for (String option : spec.substring(colon + 1).split(",")) {
+            String[] parts = option.trim().split("=", 2);
+            String name = parts[0];
+            String value = parts.length > 1 ? parts[1] : null;
+            try {
+                if (name.equals("quality") && value != null) {
+                    encoder = encoder.quality(Float.parseFloat(value));
+                } else if (name.equals("progressive") && value == null) {
+                    encoder = encoder.progressive(true);
+                } else if (name.equals("optimize") && value == null) {
+                    encoder = encoder.optimizeHuffman(true);
+                } else if (name.equals("chroma") && value != null) {
+                    encoder = encoder.chroma(ChromaSubsampling.parse(value));
+                } else if (name.equals("deflate") && value != null) {
+                    encoder = encoder.deflateLevel(Integer.parseInt(value));
+                } else {
+                    throw new IllegalArgumentException("Unknown encoder option: " + option);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid number in: " + option, e);
+            }
+        }
+        return encoder;
+    }
+
+    /**
+     * Returns a copy with the given JPEG quality.
+     *
+     * @param quality From 0 (smallest) to 1 (best).
+     * @return The new encoder.
+     */
+    public ImageEncoder quality(float quality) {
+        requireJpeg("quality");
+        if (!(quality >= 0 && quality <= 1)) {
+            throw new IllegalArgumentException("Quality must be between 0 and 1: " + quality);
+        }
+        return new ImageEncoder(format, quality, progressive, optimizeHuffman, chroma, deflateLevel);
+    }
+
+    /**
+     * Returns a copy that writes progressive or baseline JPEGs.
+     *
+     * @param progressive Whether to write progressive scans.
+     * @return The new encoder.
+     */
+    public ImageEncoder progressive(boolean progressive) {
+        requireJpeg("progressive");
+        return new ImageEncoder(format, quality, progressive, optimizeHuffman, chroma, deflateLevel);
+    }
+
+    /**
+     * Returns a copy that computes Huffman tables for each image, which makes
+     * files a few percent smaller at some encoding cost.
+     *
+     * @param optimizeHuffman Whether to optimize the Huffman tables.
+     * @return The new encoder.
+     */
+    public ImageEncoder optimizeHuffman(boolean optimizeHuffman) {
+        requireJpeg("optimize");
+        return new ImageEncoder(format, quality, progressive, optimizeHuffman, chroma, deflateLevel);
+    }
+
+    /**
+     * Returns a copy with the given JPEG chroma subsampling.
+     *
+     * @param chroma The subsampling of the color components.
+     * @return The new encoder.
+     */
+    public ImageEncoder chroma(ChromaSubsampling chroma) {
+        requireJpeg("chroma");
+        return new ImageEncoder(format, quality, progressive, optimizeHuffman, chroma, deflateLevel);
+    }
+
+    /**
+     * Returns a copy with the given PNG deflate level.
+     *
+     * @param deflateLevel From 0 (no compression, fastest) to 9 (smallest).
+     * @return The new encoder.
+     */
+    public ImageEncoder deflateLevel(int deflateLevel) {
+        if (!format.equals("png")) {
+            throw new IllegalArgumentException("The deflate option only applies to PNG, not " + format);
+        }
+        if (deflateLevel < 0 || deflateLevel > 9) {
+            throw new IllegalArgumentException("Deflate level must be between 0 and 9: " + deflateLevel);
+        }
+        return new ImageEncoder(format, quality, progressive, optimizeHuffman, chroma, deflateLevel);
+    }
+
+    /**
+     * Returns the format name, which is also the file extension to use.
+     *
+     * @return The lower-case format name.
+     */
+    public String format() {
+        return format;
+    }
+
+    /**
+     * Returns whether this format can store an image of the given type, e.g.
+     * false for an image with alpha and JPEG.
+     *
+     * @param image The image to check.
+     * @return True if {@link #write(RenderedImage, Path)} accepts the image.
+     */
+    public boolean canEncode(RenderedImage image) {
+        if (format.equals(RAW)) {
+            return image instanceof BufferedImage;
+        }
+        for (Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format); writers.hasNext(); ) {
+            ImageWriter writer = writers.next();
+            boolean accepted = writer.getOriginatingProvider().canEncodeImage(image);
+            writer.dispose();
+            if (accepted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Encodes an image into a file, replacing it if it exists.
+     *
+     * @param image The image to encode. The raw format needs a BufferedImage.
+     * @param file  The file to write.
+     * @throws IOException If writing fails.
+     */
+    public void write(RenderedImage image, Path file) throws IOException {
+        Metrics.Sample sample = Metrics.start(Metrics.ENCODE, image instanceof BufferedImage ? (BufferedImage) image : null);
+        if (format.equals(RAW)) {
+            if (!(image instanceof BufferedImage)) {
+                throw new IOException("The raw format needs a BufferedImage");
+            }
+            MappedRaster.save((BufferedImage) image, file).close();
+        } else {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+                 ImageOutputStream out = new ChannelOutputStream(channel)) {
+                write(image, out);
+            }
+        }
+        Metrics.stop(sample, null);
+    }
+
+    /**
+     * Encodes an image into memory.
+     *
+     * @param image The image to encode.
+     * @return The encoded bytes.
+     * @throws IOException If encoding fails or the format is raw.
+     */
+    public byte[] encode(RenderedImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        write(image, bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encodes an image onto a stream, which is left open.
+     *
+     * @param image The image to encode.
+     * @param out   The stream to write to.
+     * @throws IOException If encoding fails or the format is raw.
+     */
+    public void write(RenderedImage image, OutputStream out) throws IOException {
+        if (format.equals(RAW)) {
+            throw new IOException("The raw format can only be written to a file");
+        }
+        Metrics.Sample sample = Metrics.start(Metrics.ENCODE, image instanceof BufferedImage ? (BufferedImage) image : null);
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            write(image, stream);
+        }
+        Metrics.stop(sample, null);
+    }
+
+    /**
+     * Encodes an image into a file on the shared encode executor, whose
+     * threads do nothing but encoding, so the caller can go on filtering.
+     *
+     * @param image The image to encode; it must not change until the write completes.
+     * @param file  The file to write.
+     * @return A future completed with the file once it is written.
+     */
+    public CompletableFuture<Path> writeAsync(RenderedImage image, Path file) {
+        return writeAsync(image, file, EncodeExecutor.INSTANCE);
+    }
+
+    /**
+     * Encodes an image into a file on the given executor.
+     *
+     * @param image    The image to encode; it must not change until the write completes.
+     * @param file     The file to write.
+     * @param executor The executor to encode on.
+     * @return A future completed with the file once it is written.
+     */
+    public CompletableFuture<Path> writeAsync(RenderedImage image, Path file, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                write(image, file);
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * Returns the options in the syntax accepted by {@link #parse(String)}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder options = new StringBuilder();
+        if (quality >= 0) {
+            options.append(",quality=").append(quality);
+        }
+        if (progressive) {
+            options.append(",progressive");
+        }
+        if (optimizeHuffman) {
+            options.append(",optimize");
+        }
+        if (chroma != null) {
+            options.append(",chroma=").append(chroma.spec);
+        }
+        if (deflateLevel >= 0) {
+            options.append(",deflate=").append(deflateLevel);
+        }
+        return options.length() == 0 ? format : format + ":" + options.substring(1);
+    }
+
+    private void write(RenderedImage image, ImageOutputStream out) throws IOException {
+        Map<String, ImageWriter> writers = WRITERS.get();
+        ImageWriter writer = writers.get(format);
+        if (writer == null) {
+            Iterator<ImageWriter> candidates = ImageIO.getImageWritersByFormatName(format);
+            if (!candidates.hasNext()) {
+                throw new IOException("No ImageIO writer for format " + format);
+            }
+            writer = candidates.next();
+            writers.put(format, writer);
+        }
+        if (!writer.getOriginatingProvider().canEncodeImage(image)) {
+            throw new IOException("The " + format + " writer cannot encode this image type");
+        }
+        try {
+            ImageWriteParam param = param(writer);
+            IIOMetadata metadata = chroma == null ? null : chromaMetadata(writer, image, param);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, metadata), param);
+            writer.reset();
+        } catch (IOException | RuntimeException e) {
+            // A writer that failed part way may be left in any state, so do not reuse it
+            writers.remove(format);
+            writer.dispose();
+            throw e;
+        }
+    }
+
+    private ImageWriteParam param(ImageWriter writer) {
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        float compression = deflateLevel >= 0 ? (9 - deflateLevel) / 9f : quality;
+        if (compression >= 0 && param.canWriteCompressed()) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            if (param.getCompressionType() == null) {
+                param.setCompressionType(param.getCompressionTypes()[0]);
+            }
+            // The PNG writer maps quality q to deflate level round(9 * (1 - q))
+            param.setCompressionQuality(compression);
+        }
+        if (progressive && param.canWriteProgressive()) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        if (optimizeHuffman && param instanceof JPEGImageWriteParam) {
+            ((JPEGImageWriteParam) param).setOptimizeHuffmanTables(true);
+        }
+        return param;
+    }
+
+    /**
+     * Returns the writer's default metadata with the luma sampling factors set
+     * to the chosen subsampling; the color components keep factors of 1.
+     */
+    private IIOMetadata chromaMetadata(ImageWriter writer, RenderedImage image, ImageWriteParam param) throws IOException {
+        IIOMetadata metadata = writer.getDefaultImageMetadata(ImageTypeSpecifier.createFromRenderedImage(image), param);
+        Node tree = metadata.getAsTree(JPEG_METADATA);
+        NodeList components = ((Element) tree).getElementsByTagName("componentSpec");
+        if (components.getLength() < 3) {
+            return null;
+        }
+        for (int i = 0; i < components.getLength(); i++) {
+            Element component = (Element) components.item(i);
+            component.setAttribute("HsamplingFactor", Integer.toString(i == 0 ? chroma.horizontal : 1));
+            component.setAttribute("VsamplingFactor", Integer.toString(i == 0 ? chroma.vertical : 1));
+        }
+        metadata.setFromTree(JPEG_METADATA, tree);
+        return metadata;
+    }
+
+    private void requireJpeg(String option) {
+        if (!format.equals("jpg") && !format.equals("jpeg")) {
+            throw new IllegalArgumentException("The " + option + " option only applies to JPEG, not " + format);
+        }
+    }
+
+    /**
+     * The shared encode threads, created on first use.
+     */
+    private static final class EncodeExecutor {
+
+        static final ExecutorService INSTANCE;
+
+        static {
+            AtomicInteger count = new AtomicInteger();
+            INSTANCE = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), task -> {
+                Thread thread = new Thread(task, "image-encode-" + count.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * An ImageOutputStream over a FileChannel that gathers sequential writes in
+     * a direct buffer. Seeking, which writers use to patch lengths into
+     * headers, flushes the buffer first.
+     */
+    private static final class ChannelOutputStream extends ImageOutputStreamImpl {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private long bufferStart;
+
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            flushBits();
+            prepareWrite();
+            if (!buffer.hasRemaining()) {
+                flushBuffer();
+            }
+            buffer.put((byte) b);
+            streamPos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            flushBits();
+            prepareWrite();
+            if (len > buffer.remaining()) {
+                flushBuffer();
+            }
+            if (len >= buffer.capacity()) {
+                ByteBuffer source = ByteBuffer.wrap(b, off, len);
+                while (source.hasRemaining()) {
+                    streamPos += channel.write(source, streamPos);
+                }
+                bufferStart = streamPos;
+            } else {
+                buffer.put(b, off, len);
+                streamPos += len;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkClosed();
+            bitOffset = 0;
+            flushBuffer();
+            int n = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+            if (n > 0) {
+                streamPos += n;
+            }
+            return n;
+        }
+
+        @Override
+        public void seek(long pos) throws IOException {
+            checkClosed();
+            if (pos < flushedPos) {
+                throw new IndexOutOfBoundsException("pos < flushedPos!");
+            }
+            bitOffset = 0;
+            streamPos = pos;
+        }
+
+        @Override
+        public long length() {
+            try {
+                flushBuffer();
+                return channel.size();
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flushBuffer();
+            super.close();
+        }
+
+        /** Flushes the buffer if the next byte does not directly follow it. */
+        private void prepareWrite() throws IOException {
+            checkClosed();
+            if (streamPos != bufferStart + buffer.position()) {
+                flushBuffer();
+            }
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            long position = bufferStart;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+            bufferStart = streamPos;
+        }
+    }
+}
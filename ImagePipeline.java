@@ -0,0 +1,775 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Records a chain of image operations and runs it with as few passes over the
+ * pixels as possible.
+ *
+ * Nothing is computed until {@link #apply(BufferedImage)} is called. Adjacent
+ * point operations (brightness, contrast, light filters, channel mixers,
+ * invert, grayscale) are fused into one pass, with runs of per-channel
+ * operations composed into a single {@link ChannelLut}, and rotations and
+ * flips are collapsed into a single index remap that is folded into the first
+ * pass (one remap per run between kernel convolutions, which do not commute
+ * with them exactly). Blurs and other convolutions are the only operations
+ * that need passes of their own.
+ *
+ * <pre>
+ * BufferedImage result = new ImagePipeline()
+ *         .brightness(20).contrast(2).redLight(30).invert().rotateClockwise()
+ *         .apply(inputImage);
+ * </pre>
+ */
+public final class ImagePipeline {
+
+    private final List<Step> steps = new ArrayList<>();
+
+    /**
+     * Parses a chain written as comma-separated steps, each a name optionally
+     * followed by colon-separated arguments, e.g.
+     * {@code "brightness:20,contrast:2,blur:3,rotate:cw,flip:h,red:30,invert"}.
+     *
+     * Supported steps are grayscale[:bt601|bt709|average|red|green|blue], brightness:N, contrast:N,
+     * blur:R[:clamp|mirror|wrap[:passes]], gaussian:R (the same blur as kernel:gaussian:R),
+     * kernel:KERNEL[:clamp|mirror|wrap] (any {@link ConvolutionKernel#parse(String) kernel}),
+     * sharpen, edges, emboss,
+     * rotate:cw|acw|180, flip:h|v, orient:NAME (any {@link Orientation}),
+     * red:N, green:N, blue:N, invert, and the {@link ChannelMixer#parse(String) channel mixers}
+     * tint:R;G;B, gains:R;G;B, swap:ORDER, sepia and mix:M0;...;M8[;O0;O1;O2].
+     *
+     * @param spec The chain to parse.
+     * @return A pipeline holding the parsed steps.
+     */
+    public static ImagePipeline parse(String spec) {
+        ImagePipeline pipeline = new ImagePipeline();
+        for (String token : spec.split(",")) {
+            String trimmed = token.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            String[] parts = trimmed.split(":");
+            String name = parts[0].toLowerCase();
+            switch (name) {
+                case "grayscale":
+                case "gray":
+                    pipeline.grayscale(parts.length > 1 ? GrayscaleConverter.valueOf(parts[1].toUpperCase()) : GrayscaleConverter.BT601);
+                    break;
+                case "brightness":
+                    pipeline.brightness(intArg(parts, 1, trimmed));
+                    break;
+                case "contrast":
+                    pipeline.contrast(intArg(parts, 1, trimmed));
+                    break;
+                case "blur":
+                    EdgeMode edgeMode = parts.length > 2 ? EdgeMode.valueOf(parts[2].toUpperCase()) : EdgeMode.CLAMP;
+                    int passes = parts.length > 3 ? intArg(parts, 3, trimmed) : 1;
+                    pipeline.blur(intArg(parts, 1, trimmed), edgeMode, passes);
+                    break;
+                case "gaussian":
+                    pipeline.gaussianBlur(intArg(parts, 1, trimmed));
+                    break;
+                case "kernel":
+                    pipeline.convolve(parseKernel(parts, 1, trimmed), kernelEdgeMode(parts, trimmed));
+                    break;
+                case "sharpen":
+                case "edges":
+                case "emboss":
+                    pipeline.convolve(parseKernel(parts, 0, trimmed), kernelEdgeMode(parts, trimmed));
+                    break;
+                case "rotate":
+                    pipeline.orient(parseRotation(parts.length > 1 ? parts[1] : "", trimmed));
+                    break;
+                case "orient":
+                    pipeline.orient(Orientation.valueOf(orientationArg(parts, trimmed)));
+                    break;
+                case "flip":
+                    pipeline.orient(parseFlip(parts.length > 1 ? parts[1] : "", trimmed));
+                    break;
+                case "red":
+                    pipeline.redLight(intArg(parts, 1, trimmed));
+                    break;
+                case "green":
+                    pipeline.greenLight(intArg(parts, 1, trimmed));
+                    break;
+                case "blue":
+                    pipeline.blueLight(intArg(parts, 1, trimmed));
+                    break;
+                case "invert":
+                    pipeline.invert();
+                    break;
+                case "tint":
+                case "gains":
+                case "swap":
+                case "sepia":
+                case "mix":
+                    pipeline.mix(ChannelMixer.parse(trimmed));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + trimmed);
+            }
+        }
+        return pipeline;
+    }
+
+    /** Adds a grayscale conversion using Rec. 601 luma. */
+    public ImagePipeline grayscale() {
+        return grayscale(GrayscaleConverter.BT601);
+    }
+
+    /** Adds a grayscale conversion using the given luma formula. */
+    public ImagePipeline grayscale(GrayscaleConverter formula) {
+        String spec = formula == GrayscaleConverter.BT601 ? "grayscale" : "grayscale:" + formula.name().toLowerCase();
+        return point(spec, formula);
+    }
+
+    /** Adds a brightness increase by the given percentage. */
+    public ImagePipeline brightness(int increase) {
+        return point("brightness:" + increase, PointOp.brightness(increase));
+    }
+
+    /** Adds a contrast adjustment by the given factor. */
+    public ImagePipeline contrast(int factor) {
+        return point("contrast:" + factor, PointOp.contrast(factor));
+    }
+
+    /** Adds a red light filter of the given intensity. */
+    public ImagePipeline redLight(int intensity) {
+        return point("red:" + intensity, PointOp.redLight(intensity));
+    }
+
+    /** Adds a green light filter of the given intensity. */
+    public ImagePipeline greenLight(int intensity) {
+        return point("green:" + intensity, PointOp.greenLight(intensity));
+    }
+
+    /** Adds a blue light filter of the given intensity. */
+    public ImagePipeline blueLight(int intensity) {
+        return point("blue:" + intensity, PointOp.blueLight(intensity));
+    }
+
+    /** Adds a channel mixer, such as a tint, sepia tone or channel swap. */
+    public ImagePipeline mix(ChannelMixer mixer) {
+        return point(mixer.toString(), mixer);
+    }
+
+    /** Adds a sepia tone. */
+    public ImagePipeline sepia() {
+        return mix(ChannelMixer.sepia());
+    }
+
+    /** Adds a color inversion. */
+    public ImagePipeline invert() {
+        return point("invert", PointOp.invert());
+    }
+
+    /** Adds a single-pass box blur with clamped edges. */
+    public ImagePipeline blur(int blurRadius) {
+        return blur(blurRadius, EdgeMode.CLAMP, 1);
+    }
+
+    /** Adds a box blur with the given edge mode and number of passes. */
+    public ImagePipeline blur(int blurRadius, EdgeMode edgeMode, int passes) {
+        if (blurRadius < 0 || blurRadius > ConvolutionKernel.MAX_BOX_RADIUS || passes < 1) {
+            throw new IllegalArgumentException("Invalid blur radius " + blurRadius + " or passes " + passes);
+        }
+        steps.add(Step.blur(blurRadius, edgeMode, passes));
+        return this;
+    }
+
+    /** Adds a convolution with clamped edges. */
+    public ImagePipeline convolve(ConvolutionKernel kernel) {
+        return convolve(kernel, EdgeMode.CLAMP);
+    }
+
+    /** Adds a convolution with the given edge mode. */
+    public ImagePipeline convolve(ConvolutionKernel kernel, EdgeMode edgeMode) {
+        steps.add(Step.convolve(kernel, edgeMode));
+        return this;
+    }
+
+    /**
+     * Adds a Gaussian blur with clamped edges. The radius is that of
+     * {@link ConvolutionKernel#gaussian(int)}, three standard deviations.
+     */
+    public ImagePipeline gaussianBlur(int radius) {
+        return convolve(ConvolutionKernel.gaussian(radius));
+    }
+
+    /** Adds a 3 x 3 sharpen. */
+    public ImagePipeline sharpen() {
+        return convolve(ConvolutionKernel.sharpen());
+    }
+
+    /** Adds a 3 x 3 Laplacian edge detector. */
+    public ImagePipeline detectEdges() {
+        return convolve(ConvolutionKernel.edges());
+    }
+
+    /** Adds a 3 x 3 emboss. */
+    public ImagePipeline emboss() {
+        return convolve(ConvolutionKernel.emboss());
+    }
+
+    /** Adds a 90 degree clockwise rotation. */
+    public ImagePipeline rotateClockwise() {
+        return orient(Orientation.ROTATE_CLOCKWISE);
+    }
+
+    /** Adds a 90 degree anti-clockwise rotation. */
+    public ImagePipeline rotateAntiClockwise() {
+        return orient(Orientation.ROTATE_ANTI_CLOCKWISE);
+    }
+
+    /** Adds a vertical flip. */
+    public ImagePipeline flipVertical() {
+        return orient(Orientation.FLIP_VERTICAL);
+    }
+
+    /** Adds a horizontal flip. */
+    public ImagePipeline flipHorizontal() {
+        return orient(Orientation.FLIP_HORIZONTAL);
+    }
+
+    /** Adds an arbitrary rotation or flip. */
+    public ImagePipeline orient(Orientation orientation) {
+        steps.add(Step.orient(orientation));
+        return this;
+    }
+
+    /**
+     * Returns whether no operations have been recorded.
+     *
+     * @return True if the pipeline is empty.
+     */
+    public boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * Runs the recorded chain on an image. The input image is not modified.
+     *
+     * @param inputImage The image to process.
+     * @return A new TYPE_INT_RGB image holding the result.
+     */
+    public BufferedImage apply(BufferedImage inputImage) {
+        Metrics.Sample sample = Metrics.start("pipeline", inputImage);
+        BufferedImage outputImage = apply(PixelBuffer.of(inputImage)).toImage(BufferedImage.TYPE_INT_RGB);
+        Metrics.stop(sample, outputImage);
+        return outputImage;
+    }
+
+    /**
+     * Runs the recorded chain on an image, drawing every full-size buffer from
+     * a pool and handing the intermediate ones back as soon as they are used
+     * up, so repeated calls in a long-running process reuse the same rasters.
+     * Callers should release the result to the pool once they are done with it.
+     *
+     * @param inputImage The image to process; it is not modified.
+     * @param pool       The pool to draw buffers from.
+     * @return A TYPE_INT_RGB image holding the result.
+     */
+    public BufferedImage apply(BufferedImage inputImage, ImageBufferPool pool) {
+        Metrics.Sample sample = Metrics.start("pipeline", inputImage);
+        PixelBuffer input = PixelBuffer.of(inputImage);
+        // A converted input is our own copy, which the chain may overwrite and recycle
+        boolean owned = input.pixels != PixelBuffer.sharedIntPixels(inputImage);
+        BufferedImage outputImage = run(input, owned, pool).toImage(BufferedImage.TYPE_INT_RGB);
+        Metrics.stop(sample, outputImage);
+        return outputImage;
+    }
+
+    /**
+     * Runs the recorded chain on a pixel buffer. The input buffer is not modified.
+     *
+     * @param input The pixels to process.
+     * @return A new buffer holding the result.
+     */
+    public PixelBuffer apply(PixelBuffer input) {
+        return run(input, false, null);
+    }
+
+    /**
+     * Runs the chain, allocating from the pool if there is one. An owned
+     * input may be overwritten and recycled.
+     */
+    private PixelBuffer run(PixelBuffer input, boolean owned, ImageBufferPool pool) {
+        // Rotations and flips commute exactly with point operations, which are
+        // position-independent, and with box blurs, whose integer window sums
+        // and edge modes are symmetric, so each run of them up to the next
+        // kernel collapses into one remap done at the start of the run. They
+        // are not moved past a kernel: its separable passes round between the
+        // horizontal and the vertical pass, so turning the image first would
+        // change the result
+        Orientation orientation = runOrientation(0);
+
+        PixelBuffer current = input;
+        List<PointOp> pending = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            if (step.orientation != null) {
+                continue;
+            }
+            if (step.op != null) {
+                pending.add(step.op);
+            } else {
+                if (!pending.isEmpty() || orientation != Orientation.IDENTITY) {
+                    current = pointPass(current, owned, orientation, fuse(pending), pool);
+                    orientation = Orientation.IDENTITY;
+                    owned = true;
+                    pending.clear();
+                }
+                if (step.kernel != null) {
+                    current = convolve(current, owned, step.kernel, step.edgeMode, pool);
+                    orientation = runOrientation(i + 1);
+                } else {
+                    for (int pass = 0; pass < step.passes; pass++) {
+                        current = convolve(current, owned, ConvolutionKernel.box(step.blurRadius), step.edgeMode, pool);
+                        owned = true;
+                    }
+                }
+                owned = true;
+            }
+        }
+        if (!pending.isEmpty() || orientation != Orientation.IDENTITY || !owned) {
+            current = pointPass(current, owned, orientation, fuse(pending), pool);
+        }
+        return current;
+    }
+
+    /**
+     * Runs the chain for one rectangle of the output only, writing the result
+     * into that rectangle of outputImage and leaving its other pixels alone.
+     *
+     * Only the source pixels the rectangle depends on (its own, plus a halo
+     * as wide as the blur radii) are read, so the cost follows the size of the
+     * rectangle rather than the size of the image. The pixels written are
+     * exactly those a full {@link #apply(BufferedImage)} would produce.
+     *
+     * @param inputImage  The image to process.
+     * @param region      The rectangle to compute, in the coordinates of the output.
+     * @param outputImage The image receiving the rectangle, sized like the full output;
+     *                    it may be the inputImage when the chain has no rotation.
+     * @return The outputImage.
+     */
+    public BufferedImage applyToRegion(BufferedImage inputImage, Rectangle region, BufferedImage outputImage) {
+        int srcWidth = inputImage.getWidth();
+        int srcHeight = inputImage.getHeight();
+        boolean swap = orientation().swapsDimensions();
+        if (outputImage.getWidth() != (swap ? srcHeight : srcWidth)
+                || outputImage.getHeight() != (swap ? srcWidth : srcHeight)) {
+            throw new IllegalArgumentException("Output image is " + outputImage.getWidth() + "x"
+                    + outputImage.getHeight() + ", expected the size of the full result");
+        }
+        Rectangle clipped = region.intersection(new Rectangle(outputImage.getWidth(), outputImage.getHeight()));
+        if (clipped.isEmpty()) {
+            return outputImage;
+        }
+        Rectangle crop = sourceRegion(clipped, srcWidth, srcHeight);
+        applyToRegion(PixelBuffer.of(inputImage, crop), crop, srcWidth, srcHeight, clipped)
+                .writeTo(outputImage, clipped.x, clipped.y);
+        return outputImage;
+    }
+
+    /**
+     * Returns the source rectangle that a rectangle of the output depends on,
+     * i.e. the rectangle it is read from grown by the blur halo and clipped
+     * to the source. Chains with wrapped edges depend on the whole source.
+     *
+     * @param region    A rectangle within the output.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @return The source rectangle to pass to {@link #applyToRegion(PixelBuffer, Rectangle, int, int, Rectangle)}.
+     */
+    Rectangle sourceRegion(Rectangle region, int srcWidth, int srcHeight) {
+        if (wrapsEdges()) {
+            return new Rectangle(srcWidth, srcHeight);
+        }
+        Rectangle source = orientation().sourceRegion(region, srcWidth, srcHeight);
+        int halo = haloRows();
+        source.grow(halo, halo);
+        return source.intersection(new Rectangle(srcWidth, srcHeight));
+    }
+
+    /**
+     * Computes one rectangle of the output from the source pixels it depends on.
+     *
+     * Blurs treat the edges of the crop like image edges, but the crop extends
+     * the full halo past the rectangle wherever it is not clipped by the real
+     * image edge, so none of those pixels reach the rectangle.
+     *
+     * @param crop       The source pixels of cropRegion.
+     * @param cropRegion The source rectangle from {@link #sourceRegion}.
+     * @param srcWidth   The full source width.
+     * @param srcHeight  The full source height.
+     * @param region     The rectangle of the output to compute.
+     * @return A new buffer of the region's size.
+     */
+    PixelBuffer applyToRegion(PixelBuffer crop, Rectangle cropRegion, int srcWidth, int srcHeight, Rectangle region) {
+        // Run the whole chain on the crop, so the filters see the same oriented
+        // pixels as in a full apply, then locate the crop within the output
+        PixelBuffer filtered = apply(crop);
+        Orientation orientation = orientation();
+        boolean swap = orientation.swapsDimensions();
+        Rectangle placed = orientation.inverse().sourceRegion(cropRegion, swap ? srcHeight : srcWidth,
+                                                              swap ? srcWidth : srcHeight);
+        PixelBuffer dst = PixelBuffer.allocate(region.width, region.height);
+        for (int y = 0; y < region.height; y++) {
+            System.arraycopy(filtered.pixels, (region.y + y - placed.y) * filtered.width + region.x - placed.x,
+                             dst.pixels, y * region.width, region.width);
+        }
+        return dst;
+    }
+
+    /**
+     * Returns the chain in the syntax accepted by {@link #parse(String)}.
+     *
+     * @return The canonical form of this pipeline.
+     */
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder();
+        for (Step step : steps) {
+            if (spec.length() > 0) {
+                spec.append(',');
+            }
+            spec.append(step.spec);
+        }
+        return spec.toString();
+    }
+
+    /**
+     * Returns the single rotation or flip all recorded orientation steps add up to.
+     *
+     * @return The combined orientation.
+     */
+    Orientation orientation() {
+        Orientation orientation = Orientation.IDENTITY;
+        for (Step step : steps) {
+            if (step.orientation != null) {
+                orientation = orientation.then(step.orientation);
+            }
+        }
+        return orientation;
+    }
+
+    /**
+     * Returns how many rows above and below a band of output rows the chain
+     * reads, i.e. the sum of the blur and kernel radii of all passes. The
+     * same number of columns is read left and right of a rectangle.
+     *
+     * @return The vertical halo in rows.
+     */
+    int haloRows() {
+        int halo = 0;
+        for (Step step : steps) {
+            if (step.kernel != null) {
+                halo += Math.max(step.kernel.radiusX(), step.kernel.radiusY());
+            } else if (step.edgeMode != null) {
+                halo += step.blurRadius * step.passes;
+            }
+        }
+        return halo;
+    }
+
+    /**
+     * Returns whether any step samples across the image edges with
+     * {@link EdgeMode#WRAP}, so its result near one edge depends on pixels at
+     * the opposite edge.
+     *
+     * @return True if the chain wraps around the edges.
+     */
+    boolean wrapsEdges() {
+        for (Step step : steps) {
+            if (step.edgeMode == EdgeMode.WRAP) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the most full-size packed pixel buffers {@link #apply(BufferedImage)}
+     * holds at once, not counting the decoded input image: the unpacked input,
+     * plus the source and destination of a blur or convolution pass.
+     *
+     * @return The peak number of width * height int buffers.
+     */
+    int peakBuffers() {
+        for (Step step : steps) {
+            if (step.op == null && step.orientation == null) {
+                return 3;
+            }
+        }
+        return 2;
+    }
+
+    /**
+     * Returns the pipeline that exactly undoes this one, or null if any step
+     * loses information. Only rotations, flips and color inversion qualify.
+     *
+     * @return The exact inverse, or null.
+     */
+    ImagePipeline inverse() {
+        ImagePipeline inverse = new ImagePipeline();
+        for (int i = steps.size() - 1; i >= 0; i--) {
+            Step step = steps.get(i);
+            if (step.orientation != null) {
+                inverse.orient(step.orientation.inverse());
+            } else if ("invert".equals(step.spec)) {
+                inverse.steps.add(step);
+            } else {
+                return null;
+            }
+        }
+        return inverse;
+    }
+
+    /**
+     * Returns a copy of this pipeline for an image scaled by the given factor,
+     * with every blur radius scaled to match so a preview looks like a
+     * downscaled full render.
+     *
+     * @param scale The ratio of the preview's size to the full image's size.
+     * @return A pipeline with scaled spatial parameters.
+     */
+    ImagePipeline scaled(double scale) {
+        ImagePipeline copy = new ImagePipeline();
+        for (Step step : steps) {
+            if (step.kernel != null) {
+                copy.steps.add(Step.convolve(step.kernel.scaled(scale), step.edgeMode));
+            } else if (step.edgeMode != null) {
+                copy.steps.add(Step.blur((int) Math.round(step.blurRadius * scale), step.edgeMode, step.passes));
+            } else {
+                copy.steps.add(step);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Returns the single rotation or flip the orientation steps from the given
+     * index up to the next kernel convolution add up to.
+     */
+    private Orientation runOrientation(int from) {
+        Orientation orientation = Orientation.IDENTITY;
+        for (int i = from; i < steps.size() && steps.get(i).kernel == null; i++) {
+            if (steps.get(i).orientation != null) {
+                orientation = orientation.then(steps.get(i).orientation);
+            }
+        }
+        return orientation;
+    }
+
+    private ImagePipeline point(String spec, PointOp op) {
+        steps.add(Step.point(spec, op));
+        return this;
+    }
+
+    /**
+     * Makes one pass over the pixels, remapping them and applying a point
+     * operation. Unrotated passes over a buffer we own are done in place.
+     */
+    private static PixelBuffer pointPass(PixelBuffer src, boolean owned, Orientation orientation, PointOp op,
+                                         ImageBufferPool pool) {
+        boolean swap = orientation.swapsDimensions();
+        PixelBuffer dst = owned && orientation == Orientation.IDENTITY
+                ? src
+                : allocate(swap ? src.height : src.width, swap ? src.width : src.height, pool);
+        int[] in = src.pixels;
+        ParallelRows.forEachBand(dst.width, dst.height, Orientation.TILE, (fromRow, toRow) ->
+                orientation.remapRows(in, src.width, src.height, dst.pixels, op, fromRow, toRow));
+        if (owned && dst != src) {
+            recycle(src, pool);
+        }
+        return dst;
+    }
+
+    /**
+     * Makes one convolution pass into a new buffer, recycling the source if
+     * we own it.
+     */
+    private static PixelBuffer convolve(PixelBuffer src, boolean owned, ConvolutionKernel kernel, EdgeMode edgeMode,
+                                        ImageBufferPool pool) {
+        PixelBuffer dst = Convolution.apply(src, kernel, edgeMode, allocate(src.width, src.height, pool));
+        if (owned) {
+            recycle(src, pool);
+        }
+        return dst;
+    }
+
+    private static PixelBuffer allocate(int width, int height, ImageBufferPool pool) {
+        return pool == null
+                ? PixelBuffer.allocate(width, height)
+                : PixelBuffer.of(pool.acquire(width, height, BufferedImage.TYPE_INT_RGB));
+    }
+
+    private static void recycle(PixelBuffer buffer, ImageBufferPool pool) {
+        if (pool != null) {
+            pool.release(buffer.toImage(BufferedImage.TYPE_INT_RGB));
+        }
+    }
+
+    private static PointOp fuse(List<PointOp> ops) {
+        if (ops.isEmpty()) {
+            return null;
+        }
+        // Collapse each run of per-channel tables into a single table
+        List<PointOp> merged = new ArrayList<>();
+        for (PointOp op : ops) {
+            if (op instanceof ChannelMixer && ((ChannelMixer) op).isPerChannel()) {
+                op = ((ChannelMixer) op).toLut();
+            }
+            int last = merged.size() - 1;
+            if (last >= 0 && merged.get(last) instanceof ChannelLut && op instanceof ChannelLut) {
+                merged.set(last, ((ChannelLut) merged.get(last)).then((ChannelLut) op));
+            } else {
+                merged.add(op);
+            }
+        }
+        PointOp[] chain = merged.toArray(new PointOp[0]);
+        if (chain.length == 1) {
+            return chain[0];
+        }
+        return rgb -> {
+            for (PointOp op : chain) {
+                rgb = op.apply(rgb);
+            }
+            return rgb;
+        };
+    }
+
+    private static Orientation parseRotation(String direction, String token) {
+        switch (direction.toLowerCase()) {
+            case "cw":
+                return Orientation.ROTATE_CLOCKWISE;
+            case "acw":
+            case "ccw":
+                return Orientation.ROTATE_ANTI_CLOCKWISE;
+            case "180":
+                return Orientation.ROTATE_180;
+            default:
+                throw new IllegalArgumentException("Unknown rotation: " + token);
+        }
+    }
+
+    private static Orientation parseFlip(String direction, String token) {
+        switch (direction.toLowerCase()) {
+            case "h":
+                return Orientation.FLIP_HORIZONTAL;
+            case "v":
+                return Orientation.FLIP_VERTICAL;
+            default:
+                throw new IllegalArgumentException("Unknown flip: " + token);
+        }
+    }
+
+    private static String orientationArg(String[] parts, String token) {
+        if (parts.length <= 1) {
+            throw new IllegalArgumentException("Missing argument: " + token);
+        }
+        return parts[1].trim().toUpperCase();
+    }
+
+    /**
+     * Parses the kernel written from parts[from] on, less a trailing edge mode.
+     */
+    private static ConvolutionKernel parseKernel(String[] parts, int from, String token) {
+        int to = parts.length > from + 1 && isEdgeMode(parts[parts.length - 1]) ? parts.length - 1 : parts.length;
+        if (to <= from) {
+            throw new IllegalArgumentException("Missing argument: " + token);
+        }
+        return ConvolutionKernel.parse(String.join(":", Arrays.copyOfRange(parts, from, to)));
+    }
+
+    private static EdgeMode kernelEdgeMode(String[] parts, String token) {
+        String last = parts[parts.length - 1];
+        return parts.length > 1 && isEdgeMode(last) ? EdgeMode.valueOf(last.trim().toUpperCase()) : EdgeMode.CLAMP;
+    }
+
+    private static boolean isEdgeMode(String name) {
+        for (EdgeMode mode : EdgeMode.values()) {
+            if (mode.name().equalsIgnoreCase(name.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int intArg(String[] parts, int index, String token) {
+        if (parts.length <= index) {
+            throw new IllegalArgumentException("Missing argument: " + token);
+        }
+        try {
+            return Integer.parseInt(parts[index].trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number in: " + token, e);
+        }
+    }
+
+    /**
+     * One recorded operation: a point operation, an orientation, a blur or a
+     * convolution.
+     */
+    private static final class Step {
+
+        final String spec;
+        final PointOp op;
+        final Orientation orientation;
+        final int blurRadius;
+        final EdgeMode edgeMode;
+        final int passes;
+        final ConvolutionKernel kernel;
+
+        private Step(String spec, PointOp op, Orientation orientation, int blurRadius, EdgeMode edgeMode, int passes,
+                     ConvolutionKernel kernel) {
+            this.spec = spec;
+            this.op = op;
+            this.orientation = orientation;
+            this.blurRadius = blurRadius;
+            this.edgeMode = edgeMode;
+            this.passes = passes;
+            this.kernel = kernel;
+        }
+
+        static Step point(String spec, PointOp op) {
+            return new Step(spec, op, null, 0, null, 0, null);
+        }
+
+        static Step orient(Orientation orientation) {
+            String spec;
+            switch (orientation) {
+                case ROTATE_CLOCKWISE:
+                    spec = "rotate:cw";
+                    break;
+                case ROTATE_ANTI_CLOCKWISE:
+                    spec = "rotate:acw";
+                    break;
+                case ROTATE_180:
+                    spec = "rotate:180";
+                    break;
+                case FLIP_HORIZONTAL:
+                    spec = "flip:h";
+                    break;
+                case FLIP_VERTICAL:
+                    spec = "flip:v";
+                    break;
+                default:
+                    spec = "orient:" + orientation.name().toLowerCase();
+            }
+            return new Step(spec, null, orientation, 0, null, 0, null);
+        }
+
+        static Step blur(int blurRadius, EdgeMode edgeMode, int passes) {
+            String spec = "blur:" + blurRadius + ":" + edgeMode.name().toLowerCase() + ":" + passes;
+            return new Step(spec, null, null, blurRadius, edgeMode, passes, null);
+        }
+
+        static Step convolve(ConvolutionKernel kernel, EdgeMode edgeMode) {
+            String spec = "kernel:" + kernel + ":" + edgeMode.name().toLowerCase();
+            return new Step(spec, null, null, 0, edgeMode, 0, kernel);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * An HTTP front end for the editor, built on the JDK's own HTTP server.
+ *
+ * <pre>
+ * POST /process?ops=brightness:20,rotate:cw&amp;format=png   (body: the image file)
+ * POST /process?ops=contrast:2&amp;format=jpg:quality=0.7     (encoder options as for ImageEncoder)
+ * POST /process?ops=blur:12&amp;preview=512                  (a quick preview, longest side 512)
+ * GET  /metrics                                            (Prometheus text counters)
+ * GET  /metrics.json                                       (per-operation timings as JSON)
+ * </pre>
+ *
+ * Each request is handled on its own lightweight thread, so thousands of slow
+ * uploads only cost memory for their buffers. The CPU-bound decode, filter and
+ * encode work is handed to a fixed pool of filter threads behind a bounded
+ * queue; when that queue is full the request is answered with 503 instead of
+ * piling up. Uploads larger than the configured limit are answered with 413
+ * without being buffered.
+ */
+public final class ImageService {
+
+    /** The default upload limit, 64 MB. */
+    public static final int DEFAULT_MAX_UPLOAD_BYTES = 64 * 1024 * 1024;
+
+    private final HttpServer server;
+    private final ExecutorService requestExecutor;
+    private final ThreadPoolExecutor filterExecutor;
+    private final ResultCache cache;
+    private final int maxUploadBytes;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * Creates a service bound to a port. Call {@link #start()} to accept requests.
+     *
+     * @param port          The TCP port to listen on (0 picks a free one).
+     * @param filterThreads The number of threads doing decode, filter and encode work.
+     * @param queueCapacity The number of requests that may wait for a filter thread.
+     * @throws IOException If the port cannot be bound.
+     */
+    public ImageService(int port, int filterThreads, int queueCapacity) throws IOException {
+        this(port, filterThreads, queueCapacity, null);
+    }
+
+    /**
+     * Creates a service that serves repeated edits from a result cache.
+     *
+     * @param port          The TCP port to listen on (0 picks a free one).
+     * @param filterThreads The number of threads doing decode, filter and encode work.
+     * @param queueCapacity The number of requests that may wait for a filter thread.
+     * @param cache         The cache of rendered results, or null for none.
+     * @throws IOException If the port cannot be bound.
+     */
+    public ImageService(int port, int filterThreads, int queueCapacity, ResultCache cache) throws IOException {
+        this(port, filterThreads, queueCapacity, cache, DEFAULT_MAX_UPLOAD_BYTES);
+    }
+
+    /**
+     * Creates a service with a limit on the size of uploaded images.
+     *
+     * @param port           The TCP port to listen on (0 picks a free one).
+     * @param filterThreads  The number of threads doing decode, filter and encode work.
+     * @param queueCapacity  The number of requests that may wait for a filter thread.
+     * @param cache          The cache of rendered results, or null for none.
+     * @param maxUploadBytes The largest request body accepted; larger ones get 413.
+     * @throws IOException If the port cannot be bound.
+     */
+    public ImageService(int port, int filterThreads, int queueCapacity, ResultCache cache,
+                        int maxUploadBytes) throws IOException {
+        // One byte of headroom is read to detect bodies over the limit
+        if (maxUploadBytes < 1 || maxUploadBytes == Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Upload limit out of range: " + maxUploadBytes);
+        }
+        this.cache = cache;
+        this.maxUploadBytes = maxUploadBytes;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.requestExecutor = newRequestExecutor();
+        this.filterExecutor = new ThreadPoolExecutor(filterThreads, filterThreads, 0, TimeUnit.MILLISECONDS,
+                                                     new ArrayBlockingQueue<>(queueCapacity),
+                                                     new ThreadPoolExecutor.AbortPolicy());
+        server.setExecutor(requestExecutor);
+        server.createContext("/process", this::handleProcess);
+        server.createContext("/metrics", this::handleMetrics);
+        server.createContext("/metrics.json", this::handleMetricsJson);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and shuts the executors down.
+     */
+    public void stop() {
+        server.stop(0);
+        filterExecutor.shutdown();
+        requestExecutor.shutdown();
+    }
+
+    /**
+     * Returns the port the service is listening on.
+     *
+     * @return The bound port.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Returns how many requests are waiting for a filter thread.
+     *
+     * @return The filter queue depth.
+     */
+    public int queueDepth() {
+        return filterExecutor.getQueue().size();
+    }
+
+    /**
+     * Runs the service from the command line.
+     *
+     * Usage: ImageService [port] [filter threads] [queue capacity] [cache dir] [max upload MB]
+     *
+     * Giving a cache directory keeps up to 256 MB of results in memory and
+     * their encodings on disk; "-" skips the cache. Uploads are limited to
+     * 64 MB unless a limit is given.
+     *
+     * @param args The optional port, filter thread count, queue capacity, cache directory and upload limit.
+     */
+    public static void main(String[] args) {
+        try {
+            int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+            int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            int queue = args.length > 2 ? Integer.parseInt(args[2]) : threads * 4;
+            ResultCache cache = args.length > 3 && !"-".equals(args[3])
+                    ? new ResultCache(256L * 1024 * 1024, Paths.get(args[3])) : null;
+            int maxUpload = args.length > 4
+                    ? Math.toIntExact(Long.parseLong(args[4]) * 1024 * 1024) : DEFAULT_MAX_UPLOAD_BYTES;
+            ImageService service = new ImageService(port, threads, queue, cache, maxUpload);
+            Metrics.setEnabled(true);
+            service.start();
+            System.out.println("Listening on http://localhost:" + service.port() + "/process with "
+                    + threads + " filter threads and a queue of " + queue);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: ImageService [port] [filter threads] [queue capacity] [cache dir] [max upload MB]");
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void handleProcess(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST with the image as the request body");
+                return;
+            }
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            ImageEncoder encoder;
+            ImagePipeline pipeline;
+            int previewSize;
+            try {
+                encoder = ImageEncoder.parse(query.getOrDefault("format", "jpg"));
+                pipeline = ImagePipeline.parse(query.getOrDefault("ops", ""));
+                previewSize = Integer.parseInt(query.getOrDefault("preview", "0"));
+            } catch (IllegalArgumentException e) {
+                sendText(exchange, 400, e.getMessage());
+                return;
+            }
+
+            // Refuse a declared oversize body before reading any of it
+            String length = exchange.getRequestHeaders().getFirst("Content-Length");
+            if (length != null && length.length() > 0 && Long.parseLong(length) > maxUploadBytes) {
+                sendText(exchange, 413, "Image larger than " + maxUploadBytes + " bytes");
+                return;
+            }
+
+            // Read the whole upload on this request thread, before taking a filter slot;
+            // chunked bodies declare no length, so read at most one byte past the limit
+            byte[] upload;
+            try (InputStream body = exchange.getRequestBody()) {
+                upload = body.readNBytes(maxUploadBytes + 1);
+            }
+            if (upload.length > maxUploadBytes) {
+                sendText(exchange, 413, "Image larger than " + maxUploadBytes + " bytes");
+                return;
+            }
+
+            Future<byte[]> result;
+            try {
+                result = filterExecutor.submit(() -> render(upload, pipeline, encoder, previewSize));
+            } catch (RejectedExecutionException e) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendText(exchange, 503, "Too many images queued, retry later");
+                return;
+            }
+
+            byte[] encoded;
+            try {
+                encoded = result.get();
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                sendText(exchange, 422, String.valueOf(e.getCause().getMessage()));
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                sendText(exchange, 503, "Interrupted");
+                return;
+            }
+            completed.incrementAndGet();
+            String format = encoder.format();
+            exchange.getResponseHeaders().set("Content-Type", "image/" + ("jpg".equals(format) ? "jpeg" : format));
+            exchange.sendResponseHeaders(200, encoded.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(encoded);
+            }
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String text = "queue_depth " + queueDepth() + "\n"
+                    + "active_filters " + filterExecutor.getActiveCount() + "\n"
+                    + "filter_threads " + filterExecutor.getMaximumPoolSize() + "\n"
+                    + "completed_total " + completed.get() + "\n"
+                    + "rejected_total " + rejected.get() + "\n"
+                    + "failed_total " + failed.get() + "\n";
+            if (cache != null) {
+                text += "cache_memory_hits_total " + cache.memoryHits() + "\n"
+                        + "cache_disk_hits_total " + cache.diskHits() + "\n"
+                        + "cache_misses_total " + cache.misses() + "\n"
+                        + "cache_evictions_total " + cache.evictions() + "\n"
+                        + "cache_memory_bytes " + cache.memoryBytes() + "\n";
+            }
+            sendText(exchange, 200, text + Metrics.toPrometheus());
+        }
+    }
+
+    private void handleMetricsJson(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            byte[] bytes = Metrics.toJson().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        }
+    }
+
+    private byte[] render(byte[] upload, ImagePipeline pipeline, ImageEncoder encoder, int previewSize) throws IOException {
+        if (previewSize > 0) {
+            return encode(Preview.of(upload, pipeline, previewSize).image(), encoder, upload.length);
+        }
+        Metrics.Sample decode = Metrics.start(Metrics.DECODE, null);
+        BufferedImage inputImage = ImageIO.read(new ByteArrayInputStream(upload));
+        if (inputImage == null) {
+            throw new IOException("Unsupported image format");
+        }
+        Metrics.stop(decode, inputImage);
+        if (cache != null) {
+            return cache.encoded(inputImage, pipeline, encoder);
+        }
+        // Requests of similar sizes reuse each other's rasters through the shared pool
+        BufferedImage outputImage = pipeline.apply(inputImage, ImageBufferPool.shared());
+        try {
+            return encode(outputImage, encoder, upload.length);
+        } finally {
+            ImageBufferPool.shared().release(outputImage);
+        }
+    }
+
+    private static byte[] encode(BufferedImage outputImage, ImageEncoder encoder, int sizeHint) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(sizeHint);
+        encoder.write(outputImage, encoded);
+        return encoded.toByteArray();
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            query.put(key, value);
+        }
+        return query;
+    }
+
+    /**
+     * Returns a virtual-thread-per-task executor on JDKs that have one (21+),
+     * and a cached thread pool otherwise.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+import java.awt.image.BufferedImage;
+import java.util.Locale;
+
+/**
+ * Per-channel and luma histograms of an image, with the statistics derived
+ * from them.
+ *
+ * The histograms are built in one pass over the raster. Each band of rows
+ * fills its own partial histograms, which are merged when the band finishes,
+ * so worker threads never contend on shared counters. Min, max, mean,
+ * standard deviation and percentiles are then read off the 256-bin
+ * histograms without touching the pixels again.
+ */
+public final class ImageStatistics {
+
+    /** The channels statistics are kept for. */
+    public enum Channel {
+        RED, GREEN, BLUE,
+
+        /** Rec. 601 luma, as computed by {@link GrayscaleConverter#BT601}. */
+        LUMA
+    }
+
+    private final long[][] histograms = new long[Channel.values().length][256];
+    private final long pixelCount;
+
+    private ImageStatistics(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+            long[] red = new long[256];
+            long[] green = new long[256];
+            long[] blue = new long[256];
+            long[] luma = new long[256];
+            int[] row = new int[width];
+            for (int y = fromRow; y < toRow; y++) {
+                PixelBuffer.readRow(image, y, row);
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    red[(rgb >> 16) & 0xff]++;
+                    green[(rgb >> 8) & 0xff]++;
+                    blue[rgb & 0xff]++;
+                    luma[GrayscaleConverter.BT601.luma(rgb)]++;
+                }
+            }
+            merge(red, green, blue, luma);
+        });
+        this.pixelCount = (long) width * height;
+    }
+
+    /**
+     * Computes the statistics of an image.
+     *
+     * @param image The image to measure.
+     * @return Its statistics.
+     */
+    public static ImageStatistics of(BufferedImage image) {
+        Metrics.Sample sample = Metrics.start("statistics", image);
+        ImageStatistics statistics = new ImageStatistics(image);
+        Metrics.stop(sample, null);
+        return statistics;
+    }
+
+    /**
+     * Returns the number of pixels measured.
+     *
+     * @return The pixel count.
+     */
+    public long pixelCount() {
+        return pixelCount;
+    }
+
+    /**
+     * Returns a channel's histogram.
+     *
+     * @param channel The channel.
+     * @return A copy of its 256 bins.
+     */
+    public long[] histogram(Channel channel) {
+        return histograms[channel.ordinal()].clone();
+    }
+
+    /**
+     * Returns the smallest value of a channel.
+     *
+     * @param channel The channel.
+     * @return Its minimum, 0-255.
+     */
+    public int min(Channel channel) {
+        return percentile(channel, 0);
+    }
+
+    /**
+     * Returns the largest value of a channel.
+     *
+     * @param channel The channel.
+     * @return Its maximum, 0-255.
+     */
+    public int max(Channel channel) {
+        long[] histogram = histograms[channel.ordinal()];
+        for (int v = 255; v > 0; v--) {
+            if (histogram[v] != 0) {
+                return v;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the mean value of a channel.
+     *
+     * @param channel The channel.
+     * @return Its mean.
+     */
+    public double mean(Channel channel) {
+        long[] histogram = histograms[channel.ordinal()];
+        long sum = 0;
+        for (int v = 0; v < 256; v++) {
+            sum += v * histogram[v];
+        }
+        return pixelCount == 0 ? 0 : (double) sum / pixelCount;
+    }
+
+    /**
+     * Returns the population standard deviation of a channel.
+     *
+     * @param channel The channel.
+     * @return Its standard deviation.
+     */
+    public double standardDeviation(Channel channel) {
+        if (pixelCount == 0) {
+            return 0;
+        }
+        long[] histogram = histograms[channel.ordinal()];
+        double mean = mean(channel);
+        double squares = 0;
+        for (int v = 0; v < 256; v++) {
+            squares += (v - mean) * (v - mean) * histogram[v];
+        }
+        return Math.sqrt(squares / pixelCount);
+    }
+
+    /**
+     * Returns the smallest value that at least the given share of a channel's
+     * pixels do not exceed.
+     *
+     * @param channel The channel.
+     * @param percent The share of pixels, 0-100.
+     * @return The percentile value, 0-255.
+     */
+    public int percentile(Channel channel, double percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percent);
+        }
+        long[] histogram = histograms[channel.ordinal()];
+        long target = Math.max(1, (long) Math.ceil(pixelCount * percent / 100));
+        long seen = 0;
+        for (int v = 0; v < 256; v++) {
+            seen += histogram[v];
+            if (seen >= target) {
+                return v;
+            }
+        }
+        return 255;
+    }
+
+    /**
+     * Returns a short table of the statistics of every channel.
+     *
+     * @return One line per channel.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(pixelCount).append(" pixels\n");
+        for (Channel channel : Channel.values()) {
+            text.append(String.format(Locale.ROOT, "%-5s min %3d  max %3d  mean %7.2f  stddev %6.2f%n",
+                                      channel, min(channel), max(channel), mean(channel), standardDeviation(channel)));
+        }
+        return text.toString();
+    }
+
+    private synchronized void merge(long[] red, long[] green, long[] blue, long[] luma) {
+        long[][] partials = {red, green, blue, luma};
+        for (int c = 0; c < partials.length; c++) {
+            for (int v = 0; v < 256; v++) {
+                histograms[c][v] += partials[c][v];
+            }
+        }
+    }
+}
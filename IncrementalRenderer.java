@@ -0,0 +1,198 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.BitSet;
+
+/**
+ * Keeps the result of a pipeline up to date while its source is edited
+ * locally, recomputing only the output tiles a change can affect.
+ *
+ * The output is divided into square tiles. Telling the renderer which source
+ * rectangle changed marks every tile within reach of it (the rectangle grown
+ * by the chain's blur halo, mapped through its rotation) as dirty, and a
+ * render recomputes just the dirty tiles, optionally only those inside a
+ * viewport. Horizontal runs of dirty tiles are recomputed together, so their
+ * shared halo is read once.
+ *
+ * <pre>
+ * IncrementalRenderer renderer = new IncrementalRenderer(canvas, ImagePipeline.parse("blur:4,contrast:2"));
+ * renderer.render();                                   // first full render
+ * paintStroke(canvas, stroke);                         // edit the source pixels
+ * renderer.sourceChanged(stroke.getBounds());
+ * renderer.render(viewport);                           // cost follows the stroke, not the canvas
+ * </pre>
+ */
+public final class IncrementalRenderer {
+
+    /** The default tile edge length in pixels. */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private final PixelBuffer source;
+    private final int tileSize;
+    private ImagePipeline pipeline;
+    private PixelBuffer output;
+    private int tilesX;
+    private int tilesY;
+    private BitSet dirty;
+
+    /**
+     * Creates a renderer with the default tile size. Every tile starts dirty.
+     *
+     * @param sourceImage The image being edited. Edits to a TYPE_INT_RGB or
+     *                    TYPE_INT_ARGB image are seen directly; other types are copied once.
+     * @param pipeline    The operations to keep applied.
+     */
+    public IncrementalRenderer(BufferedImage sourceImage, ImagePipeline pipeline) {
+        this(PixelBuffer.of(sourceImage), pipeline, DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * Creates a renderer. Every tile starts dirty.
+     *
+     * @param source   The pixels being edited; the caller changes them and reports
+     *                 the changes through {@link #sourceChanged(Rectangle)}.
+     * @param pipeline The operations to keep applied.
+     * @param tileSize The tile edge length in pixels.
+     */
+    public IncrementalRenderer(PixelBuffer source, ImagePipeline pipeline, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("Tile size must be at least 1: " + tileSize);
+        }
+        this.source = source;
+        this.tileSize = tileSize;
+        setPipeline(pipeline);
+    }
+
+    /**
+     * Returns the pixels being edited.
+     *
+     * @return The source buffer.
+     */
+    public PixelBuffer source() {
+        return source;
+    }
+
+    /**
+     * Replaces the operations and marks every tile dirty.
+     *
+     * @param pipeline The operations to keep applied.
+     */
+    public synchronized void setPipeline(ImagePipeline pipeline) {
+        this.pipeline = pipeline;
+        boolean swap = pipeline.orientation().swapsDimensions();
+        int width = swap ? source.height : source.width;
+        int height = swap ? source.width : source.height;
+        if (output == null || output.width != width || output.height != height) {
+            output = PixelBuffer.allocate(width, height);
+        }
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        dirty = new BitSet(tilesX * tilesY);
+        dirty.set(0, tilesX * tilesY);
+    }
+
+    /**
+     * Marks the output tiles that depend on a changed source rectangle.
+     *
+     * @param changed The rectangle of source pixels that was modified.
+     */
+    public synchronized void sourceChanged(Rectangle changed) {
+        int halo = pipeline.haloRows();
+        Rectangle affected = new Rectangle(changed);
+        affected.grow(halo, halo);
+        affected = affected.intersection(new Rectangle(source.width, source.height));
+        if (affected.isEmpty()) {
+            return;
+        }
+        if (pipeline.wrapsEdges() && !new Rectangle(halo, halo, source.width - 2 * halo, source.height - 2 * halo)
+                .contains(changed)) {
+            // Changes near an edge reach the opposite edge through the wrap
+            dirty.set(0, tilesX * tilesY);
+            return;
+        }
+        // The inverse orientation reads output pixels from source positions
+        Rectangle region = pipeline.orientation().inverse().sourceRegion(affected, output.width, output.height);
+        int fromX = region.x / tileSize;
+        int toX = (region.x + region.width - 1) / tileSize;
+        for (int ty = region.y / tileSize; ty <= (region.y + region.height - 1) / tileSize; ty++) {
+            dirty.set(ty * tilesX + fromX, ty * tilesX + toX + 1);
+        }
+    }
+
+    /**
+     * Recomputes every dirty tile.
+     *
+     * @return The number of tiles recomputed.
+     */
+    public synchronized int render() {
+        return render(new Rectangle(output.width, output.height));
+    }
+
+    /**
+     * Recomputes the dirty tiles that overlap a viewport. Tiles outside it
+     * stay dirty until a later render covers them.
+     *
+     * @param viewport The rectangle of the output that must be current.
+     * @return The number of tiles recomputed.
+     */
+    public synchronized int render(Rectangle viewport) {
+        Rectangle visible = viewport.intersection(new Rectangle(output.width, output.height));
+        if (visible.isEmpty()) {
+            return 0;
+        }
+        int fromX = visible.x / tileSize;
+        int toX = (visible.x + visible.width - 1) / tileSize;
+        int rendered = 0;
+        for (int ty = visible.y / tileSize; ty <= (visible.y + visible.height - 1) / tileSize; ty++) {
+            int row = ty * tilesX;
+            for (int tx = dirty.nextSetBit(row + fromX); tx >= 0 && tx <= row + toX; tx = dirty.nextSetBit(tx)) {
+                // Render the whole run of adjacent dirty tiles in one go
+                int end = Math.min(dirty.nextClearBit(tx), row + toX + 1);
+                renderTiles(tx - row, end - row, ty);
+                dirty.clear(tx, end);
+                rendered += end - tx;
+                tx = end;
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Returns the number of tiles waiting to be recomputed.
+     *
+     * @return The dirty tile count.
+     */
+    public synchronized int dirtyTiles() {
+        return dirty.cardinality();
+    }
+
+    /**
+     * Returns the rendered output. Dirty tiles hold stale pixels until rendered.
+     *
+     * @return The output buffer.
+     */
+    public synchronized PixelBuffer output() {
+        return output;
+    }
+
+    /**
+     * Returns the rendered output as an image sharing the output buffer.
+     *
+     * @return A TYPE_INT_RGB view of the output.
+     */
+    public synchronized BufferedImage image() {
+        return output.toImage(BufferedImage.TYPE_INT_RGB);
+    }
+
+    private void renderTiles(int fromTile, int toTile, int tileRow) {
+        int x = fromTile * tileSize;
+        int y = tileRow * tileSize;
+        Rectangle region = new Rectangle(x, y, Math.min(toTile * tileSize, output.width) - x,
+                                         Math.min(y + tileSize, output.height) - y);
+        Rectangle crop = pipeline.sourceRegion(region, source.width, source.height);
+        PixelBuffer tiles = pipeline.applyToRegion(source.crop(crop), crop, source.width, source.height, region);
+        for (int row = 0; row < region.height; row++) {
+            System.arraycopy(tiles.pixels, row * region.width, output.pixels,
+                             (region.y + row) * output.width + region.x, region.width);
+        }
+    }
+}
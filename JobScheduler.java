@@ -0,0 +1,386 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Runs independent edit jobs (decode, operation chain, encode) concurrently
+ * within a memory budget.
+ *
+ * Before a job is queued, its peak heap use is estimated from the image
+ * header alone: the reader reports the dimensions and pixel layout without
+ * decoding, and the chain tells how many full-size buffers it keeps alive at
+ * once. A job only starts when its estimate fits into what is left of the
+ * budget, so a few huge images cannot exhaust the heap together, while small
+ * images keep flowing past them.
+ *
+ * Waiting jobs are ordered by deadline, then by size, smallest first. A job
+ * that does not fit yet may be overtaken by smaller ones a bounded number of
+ * times; after that, jobs behind it wait until it has started, so large images
+ * are never starved. A job larger than the whole budget runs on its own.
+ * Admitted jobs run on a work-stealing pool.
+ *
+ * <pre>
+ * try (JobScheduler scheduler = new JobScheduler(2L &lt;&lt; 30, 8)) {
+ *     for (Path input : inputs) {
+ *         scheduler.submit(input, pipeline, outDir.resolve(input.getFileName()), ImageEncoder.of("jpg"));
+ *     }
+ * }   // waits for every job
+ * </pre>
+ */
+public final class JobScheduler implements AutoCloseable {
+
+    /** How often a waiting job may be overtaken by smaller jobs that fit. */
+    private static final int MAX_OVERTAKES = 8;
+
+    private static final Comparator<Job> PRIORITY = Comparator
+            .comparingLong((Job job) -> job.deadline)
+            .thenComparingLong(job -> job.estimatedBytes)
+            .thenComparingLong(job -> job.sequence);
+
+    private final long memoryBudget;
+    private final int threads;
+    private final ForkJoinPool pool;
+    private final TreeSet<Job> pending = new TreeSet<>(PRIORITY);
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private long reservedBytes;
+    private int running;
+    private boolean closed;
+
+    /**
+     * Creates a scheduler sized for this JVM: three quarters of the maximum
+     * heap as the budget and one worker per core.
+     */
+    public JobScheduler() {
+        this(Runtime.getRuntime().maxMemory() / 4 * 3, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scheduler with an explicit budget and worker count.
+     *
+     * @param memoryBudget The most estimated heap bytes the running jobs may use together.
+     * @param threads      The most jobs that may run at once.
+     */
+    public JobScheduler(long memoryBudget, int threads) {
+        if (memoryBudget < 1 || threads < 1) {
+            throw new IllegalArgumentException("Invalid memory budget " + memoryBudget + " or threads " + threads);
+        }
+        this.memoryBudget = memoryBudget;
+        this.threads = threads;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("image-job-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+    }
+
+    /**
+     * Estimates the peak heap use of running a chain on an image file, from
+     * its header only.
+     *
+     * @param input    The image file.
+     * @param pipeline The operations that will be applied.
+     * @return The estimated peak in bytes: the decoded raster plus the chain's working buffers.
+     * @throws IOException If the header cannot be read or the format is not supported.
+     */
+    public static long estimatePeakBytes(Path input, ImagePipeline pipeline) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input.toFile())) {
+            if (in == null) {
+                throw new IOException("Cannot open image: " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + input);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                return pixels * (decodedBytesPerPixel(reader) + 4L * pipeline.peakBuffers());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Queues a job without a deadline.
+     *
+     * @param input    The image file to read.
+     * @param pipeline The operations to apply.
+     * @param output   The file to write the result to.
+     * @param encoder  The format and settings of the result.
+     * @return A future completed with the output path, or exceptionally if the job fails.
+     */
+    public CompletableFuture<Path> submit(Path input, ImagePipeline pipeline, Path output, ImageEncoder encoder) {
+        return submit(input, pipeline, output, encoder, null);
+    }
+
+    /**
+     * Queues a job. Jobs with earlier deadlines start first; jobs without one
+     * come after all jobs that have one. A missed deadline does not cancel
+     * the job.
+     *
+     * @param input    The image file to read.
+     * @param pipeline The operations to apply.
+     * @param output   The file to write the result to.
+     * @param encoder  The format and settings of the result.
+     * @param deadline When the result is wanted, or null for no deadline.
+     * @return A future completed with the output path, or exceptionally if the
+     *         job fails, including when the image header cannot be read.
+     */
+    public CompletableFuture<Path> submit(Path input, ImagePipeline pipeline, Path output, ImageEncoder encoder,
+                                          Instant deadline) {
+        CompletableFuture<Path> result = new CompletableFuture<>();
+        long estimatedBytes;
+        try {
+            estimatedBytes = estimatePeakBytes(input, pipeline);
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            result.completeExceptionally(e);
+            return result;
+        }
+        Job job = new Job(input, pipeline, output, encoder, result, estimatedBytes,
+                          deadline != null ? deadline.toEpochMilli() : Long.MAX_VALUE, sequence.getAndIncrement());
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Scheduler is closed");
+            }
+            pending.add(job);
+            dispatch();
+        }
+        return result;
+    }
+
+    /** Returns the most estimated heap bytes the running jobs may use together. */
+    public long memoryBudget() {
+        return memoryBudget;
+    }
+
+    /** Returns the estimated heap bytes of the jobs running now. */
+    public synchronized long reservedBytes() {
+        return reservedBytes;
+    }
+
+    /** Returns how many jobs are running now. */
+    public synchronized int runningJobs() {
+        return running;
+    }
+
+    /** Returns how many jobs are waiting for memory or a worker. */
+    public synchronized int pendingJobs() {
+        return pending.size();
+    }
+
+    /** Returns how many jobs have written their output. */
+    public long completedJobs() {
+        return completed.get();
+    }
+
+    /** Returns how many jobs have failed. */
+    public long failedJobs() {
+        return failed.get();
+    }
+
+    /**
+     * Stops accepting jobs and waits until every queued job has finished.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            boolean interrupted = false;
+            while (running > 0 || !pending.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Runs a directory of images from the command line.
+     *
+     * Usage: JobScheduler &lt;input dir or glob&gt; &lt;operation chain&gt; &lt;output dir&gt; [output format] [budget MB]
+     *
+     * @param args The input, chain, output and optional format and budget arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 5) {
+            System.out.println("Usage: JobScheduler <input dir or glob> <operation chain> <output dir> [output format] [budget MB]");
+            System.out.println("Example: JobScheduler \"photos/*.jpg\" gaussian:8,rotate:cw out jpg 512");
+            return;
+        }
+        try {
+            ImagePipeline pipeline = ImagePipeline.parse(args[1]);
+            ImageEncoder encoder = ImageEncoder.parse(args.length > 3 ? args[3] : "jpg");
+            long budget = args.length > 4 ? Long.parseLong(args[4]) << 20 : Runtime.getRuntime().maxMemory() / 4 * 3;
+            List<Path> inputs = BatchProcessor.listInputs(args[0]);
+            Path outputDir = Paths.get(args[2]);
+            Files.createDirectories(outputDir);
+            System.out.println("Processing " + inputs.size() + " images within " + (budget >> 20) + " MB");
+
+            long started = System.nanoTime();
+            List<CompletableFuture<Path>> results = new ArrayList<>();
+            JobScheduler scheduler = new JobScheduler(budget, Runtime.getRuntime().availableProcessors());
+            try {
+                for (Path input : inputs) {
+                    String name = input.getFileName().toString();
+                    int dot = name.lastIndexOf('.');
+                    Path output = outputDir.resolve((dot > 0 ? name.substring(0, dot) : name) + "." + encoder.format());
+                    results.add(scheduler.submit(input, pipeline, output, encoder));
+                }
+            } finally {
+                scheduler.close();
+            }
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).join();
+                } catch (CompletionException e) {
+                    System.out.println(inputs.get(i) + ": " + e.getCause().getMessage());
+                }
+            }
+            System.out.printf("%d written, %d failed in %.1f s%n", scheduler.completedJobs(), scheduler.failedJobs(),
+                              (System.nanoTime() - started) / 1e9);
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid budget: " + args[4]);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts waiting jobs in priority order while workers are free and their
+     * estimates fit into the budget. Must be called holding the lock.
+     */
+    private void dispatch() {
+        Job blocked = null;
+        for (Iterator<Job> it = pending.iterator(); it.hasNext() && running < threads; ) {
+            Job job = it.next();
+            // A job larger than the whole budget still runs once nothing else does
+            boolean fits = running == 0 || reservedBytes + job.estimatedBytes <= memoryBudget;
+            if (!fits) {
+                if (blocked == null) {
+                    blocked = job;
+                }
+                if (blocked.overtakes >= MAX_OVERTAKES) {
+                    // Hold the remaining budget for the blocked job
+                    break;
+                }
+                continue;
+            }
+            if (blocked != null) {
+                blocked.overtakes++;
+            }
+            it.remove();
+            reservedBytes += job.estimatedBytes;
+            running++;
+            pool.execute(() -> run(job));
+        }
+    }
+
+    private void run(Job job) {
+        try {
+            Metrics.Sample sample = Metrics.start(Metrics.DECODE, null);
+            BufferedImage image = ImageIO.read(job.input.toFile());
+            if (image == null) {
+                throw new IOException("Unsupported image format: " + job.input);
+            }
+            Metrics.stop(sample, image);
+            image = job.pipeline.apply(image);
+            job.encoder.write(image, job.output);
+            completed.incrementAndGet();
+            job.result.complete(job.output);
+        } catch (Throwable e) {
+            // Includes OutOfMemoryError from a job whose estimate was too low:
+            // its image is unreachable by now, and the caller must hear of it
+            failed.incrementAndGet();
+            job.result.completeExceptionally(e);
+        } finally {
+            synchronized (this) {
+                reservedBytes -= job.estimatedBytes;
+                running--;
+                dispatch();
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes per pixel of the raster the reader will decode into.
+     */
+    private static int decodedBytesPerPixel(ImageReader reader) throws IOException {
+        ImageTypeSpecifier type = reader.getRawImageType(0);
+        if (type == null) {
+            Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+            type = types.hasNext() ? types.next() : null;
+        }
+        if (type == null) {
+            return 4;
+        }
+        SampleModel sampleModel = type.getSampleModel();
+        int bits = 0;
+        for (int size : sampleModel.getSampleSize()) {
+            bits += size;
+        }
+        return Math.max(1, (bits + 7) / 8);
+    }
+
+    /**
+     * One queued image with its estimate and priority.
+     */
+    private static final class Job {
+
+        final Path input;
+        final ImagePipeline pipeline;
+        final Path output;
+        final ImageEncoder encoder;
+        final CompletableFuture<Path> result;
+        final long estimatedBytes;
+        final long deadline;
+        final long sequence;
+        int overtakes;
+
+        Job(Path input, ImagePipeline pipeline, Path output, ImageEncoder encoder, CompletableFuture<Path> result,
+            long estimatedBytes, long deadline, long sequence) {
+            this.input = input;
+            this.pipeline = pipeline;
+            this.output = output;
+            this.encoder = encoder;
+            this.result = result;
+            this.estimatedBytes = estimatedBytes;
+            this.deadline = deadline;
+            this.sequence = sequence;
+        }
+    }
+}
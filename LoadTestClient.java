@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends concurrent requests to a running {@link ImageService} and reports
+ * throughput, latency percentiles and status codes.
+ */
+public final class LoadTestClient {
+
+    private LoadTestClient() {
+    }
+
+    /**
+     * Runs a load test from the command line.
+     *
+     * Usage: LoadTestClient &lt;image&gt; [operation chain] [concurrency] [requests] [url]
+     *
+     * @param args The image file and optional chain, concurrency, request count and service URL.
+     * @throws IOException          If the image cannot be read.
+     * @throws InterruptedException If interrupted while waiting for the requests.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.out.println("Usage: LoadTestClient <image> [operation chain] [concurrency] [requests] [url]");
+            return;
+        }
+        byte[] image = Files.readAllBytes(Paths.get(args[0]));
+        String chain = args.length > 1 ? args[1] : "brightness:20";
+        int concurrency = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+        int requests = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        String url = args.length > 4 ? args[4] : "http://localhost:8080/process";
+        URI uri = URI.create(url + "?ops=" + URLEncoder.encode(chain, StandardCharsets.UTF_8));
+
+        HttpClient client = HttpClient.newHttpClient();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        Map<Integer, AtomicInteger> statuses = Collections.synchronizedMap(new TreeMap<>());
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long started = System.nanoTime();
+
+        for (int w = 0; w < concurrency; w++) {
+            workers.execute(() -> {
+                while (next.getAndIncrement() < requests) {
+                    HttpRequest request = HttpRequest.newBuilder(uri)
+                            .POST(HttpRequest.BodyPublishers.ofByteArray(image))
+                            .build();
+                    long t0 = System.nanoTime();
+                    int status;
+                    try {
+                        status = client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (IOException e) {
+                        status = -1;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    latencies.add(System.nanoTime() - t0);
+                    statuses.computeIfAbsent(status, s -> new AtomicInteger()).incrementAndGet();
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.DAYS);
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        List<Long> sorted = new ArrayList<>(latencies);
+        Collections.sort(sorted);
+        System.out.printf("%d requests in %.2f s (%.1f req/s) at concurrency %d%n",
+                          sorted.size(), seconds, sorted.size() / seconds, concurrency);
+        System.out.printf("latency ms  p50 %.1f  p90 %.1f  p99 %.1f  max %.1f%n",
+                          percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99), percentile(sorted, 100));
+        System.out.println("status codes " + statuses + " (-1 = connection error)");
+    }
+
+    private static double percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index))) / 1e6;
+    }
+}
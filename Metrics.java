@@ -0,0 +1,377 @@
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * Per-operation timing, throughput and allocation counters.
+ *
+ * Operations bracket their work with {@link #start} and {@link #stop}. While
+ * metrics are disabled (the default) start returns null after a single
+ * volatile read and stop returns immediately, so the calls can stay on every
+ * hot path. When enabled, each operation accumulates its call count, wall
+ * time, pixels processed, bytes allocated by the calling thread and the
+ * input/output image types seen. Every operation is registered as an MBean
+ * under {@code ImageEditor:type=Operation,name=<operation>}, and the whole
+ * table can be dumped as JSON or Prometheus text.
+ *
+ * Allocation is measured on the calling thread only, so the share allocated
+ * by parallel bands on worker threads is not included.
+ */
+public final class Metrics {
+
+    /** The operation name used for image decoding. */
+    public static final String DECODE = "decode";
+
+    /** The operation name used for image encoding. */
+    public static final String ENCODE = "encode";
+
+    private static final Map<String, OperationStats> OPERATIONS = new ConcurrentHashMap<>();
+    private static final com.sun.management.ThreadMXBean THREADS = allocationBean();
+
+    private static volatile boolean enabled;
+    private static volatile boolean consoleLog;
+
+    private Metrics() {
+    }
+
+    /**
+     * Turns recording on or off. Counters already recorded are kept.
+     *
+     * @param on Whether to record operations.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Returns whether operations are being recorded.
+     *
+     * @return True if recording is on.
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Prints a one-line summary of every recorded operation to the console.
+     * Has no effect while recording is off.
+     *
+     * @param on Whether to print each sample.
+     */
+    public static void setConsoleLog(boolean on) {
+        consoleLog = on;
+    }
+
+    /**
+     * Starts timing an operation.
+     *
+     * @param operation  The operation name, e.g. "increaseBrightness".
+     * @param inputImage The image being processed, or null if there is none yet (e.g. decoding).
+     * @return A sample to pass to {@link #stop}, or null when recording is off.
+     */
+    public static Sample start(String operation, BufferedImage inputImage) {
+        if (!enabled) {
+            return null;
+        }
+        return new Sample(operation, inputImage, allocatedBytes(), System.nanoTime());
+    }
+
+    /**
+     * Finishes timing an operation and adds it to the operation's counters.
+     *
+     * @param sample      The sample returned by {@link #start}; null is ignored.
+     * @param outputImage The image produced, or null if there is none (e.g. encoding).
+     */
+    public static void stop(Sample sample, BufferedImage outputImage) {
+        if (sample == null) {
+            return;
+        }
+        long nanos = System.nanoTime() - sample.startNanos;
+        long allocated = Math.max(0, allocatedBytes() - sample.startAllocated);
+        BufferedImage measured = sample.inputImage != null ? sample.inputImage : outputImage;
+        long pixels = measured == null ? 0 : (long) measured.getWidth() * measured.getHeight();
+        String types = typeName(sample.inputImage) + "->" + typeName(outputImage);
+
+        OPERATIONS.computeIfAbsent(sample.operation, Metrics::register).record(nanos, pixels, allocated, types);
+        if (consoleLog) {
+            System.out.printf(Locale.ROOT, "%s %s: %.1f ms, %.1f MP/s, %d KB allocated%n",
+                              sample.operation, types, nanos / 1e6,
+                              nanos == 0 ? 0 : pixels * 1e3 / nanos, allocated / 1024);
+        }
+    }
+
+    /**
+     * Returns the counters of one operation.
+     *
+     * @param operation The operation name.
+     * @return Its counters, or null if it has not been recorded.
+     */
+    public static OperationStatsMBean get(String operation) {
+        return OPERATIONS.get(operation);
+    }
+
+    /**
+     * Clears the counters of every operation.
+     */
+    public static void reset() {
+        for (OperationStats stats : OPERATIONS.values()) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * Returns every operation's counters as a JSON object keyed by operation name.
+     *
+     * @return The counters as JSON.
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, OperationStats> entry : new TreeMap<>(OPERATIONS).entrySet()) {
+            OperationStats stats = entry.getValue();
+            if (json.length() > 1) {
+                json.append(',');
+            }
+            json.append('"').append(entry.getKey()).append("\":{")
+                .append("\"count\":").append(stats.getCount())
+                .append(",\"totalMillis\":").append(format(stats.getTotalMillis()))
+                .append(",\"maxMillis\":").append(format(stats.getMaxMillis()))
+                .append(",\"megapixelsPerSecond\":").append(format(stats.getMegapixelsPerSecond()))
+                .append(",\"allocatedBytes\":").append(stats.getAllocatedBytes())
+                .append(",\"imageTypes\":{");
+            boolean first = true;
+            for (Map.Entry<String, Long> types : stats.typeCounts().entrySet()) {
+                json.append(first ? "" : ",").append('"').append(types.getKey()).append("\":").append(types.getValue());
+                first = false;
+            }
+            json.append("}}");
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Returns every operation's counters in the Prometheus text exposition format.
+     *
+     * @return The counters as Prometheus text.
+     */
+    public static String toPrometheus() {
+        StringBuilder text = new StringBuilder();
+        Map<String, OperationStats> sorted = new TreeMap<>(OPERATIONS);
+        text.append("# TYPE imageeditor_operation_calls_total counter\n");
+        sorted.forEach((name, stats) -> metric(text, "imageeditor_operation_calls_total", name, stats.getCount()));
+        text.append("# TYPE imageeditor_operation_seconds_total counter\n");
+        sorted.forEach((name, stats) -> metric(text, "imageeditor_operation_seconds_total", name, stats.getTotalMillis() / 1e3));
+        text.append("# TYPE imageeditor_operation_seconds_max gauge\n");
+        sorted.forEach((name, stats) -> metric(text, "imageeditor_operation_seconds_max", name, stats.getMaxMillis() / 1e3));
+        text.append("# TYPE imageeditor_operation_pixels_total counter\n");
+        sorted.forEach((name, stats) -> metric(text, "imageeditor_operation_pixels_total", name, stats.getPixels()));
+        text.append("# TYPE imageeditor_operation_allocated_bytes_total counter\n");
+        sorted.forEach((name, stats) -> metric(text, "imageeditor_operation_allocated_bytes_total", name, stats.getAllocatedBytes()));
+        text.append("# TYPE imageeditor_operation_images_total counter\n");
+        sorted.forEach((name, stats) -> stats.typeCounts().forEach((types, count) -> {
+            int arrow = types.indexOf("->");
+            text.append("imageeditor_operation_images_total{operation=\"").append(name)
+                .append("\",input=\"").append(types, 0, arrow)
+                .append("\",output=\"").append(types.substring(arrow + 2))
+                .append("\"} ").append(count).append('\n');
+        }));
+        return text.toString();
+    }
+
+    /**
+     * The counters of one operation, as exposed over JMX.
+     */
+    public interface OperationStatsMBean {
+
+        /** Returns how many times the operation ran. */
+        long getCount();
+
+        /** Returns the total wall time spent in the operation. */
+        double getTotalMillis();
+
+        /** Returns the longest single run of the operation. */
+        double getMaxMillis();
+
+        /** Returns the average wall time per run. */
+        double getMeanMillis();
+
+        /** Returns the total number of pixels processed. */
+        long getPixels();
+
+        /** Returns the pixel throughput over all runs. */
+        double getMegapixelsPerSecond();
+
+        /** Returns the bytes allocated by the calling threads during the operation. */
+        long getAllocatedBytes();
+
+        /** Returns "input->output" image type pairs with how often each was seen. */
+        String[] getImageTypes();
+
+        /** Clears the counters. */
+        void reset();
+    }
+
+    /**
+     * An operation in progress, as returned by {@link #start}.
+     */
+    public static final class Sample {
+
+        final String operation;
+        final BufferedImage inputImage;
+        final long startAllocated;
+        final long startNanos;
+
+        Sample(String operation, BufferedImage inputImage, long startAllocated, long startNanos) {
+            this.operation = operation;
+            this.inputImage = inputImage;
+            this.startAllocated = startAllocated;
+            this.startNanos = startNanos;
+        }
+    }
+
+    private static final class OperationStats implements OperationStatsMBean {
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder pixels = new LongAdder();
+        private final LongAdder allocated = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final Map<String, LongAdder> types = new ConcurrentHashMap<>();
+
+        void record(long elapsed, long pixelCount, long allocatedBytes, String typePair) {
+            count.increment();
+            nanos.add(elapsed);
+            pixels.add(pixelCount);
+            allocated.add(allocatedBytes);
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+            types.computeIfAbsent(typePair, t -> new LongAdder()).increment();
+        }
+
+        Map<String, Long> typeCounts() {
+            Map<String, Long> counts = new TreeMap<>();
+            types.forEach((pair, adder) -> counts.put(pair, adder.sum()));
+            return counts;
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return nanos.sum() / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : nanos.sum() / 1e6 / n;
+        }
+
+        @Override
+        public long getPixels() {
+            return pixels.sum();
+        }
+
+        @Override
+        public double getMegapixelsPerSecond() {
+            long elapsed = nanos.sum();
+            return elapsed == 0 ? 0 : pixels.sum() * 1e3 / elapsed;
+        }
+
+        @Override
+        public long getAllocatedBytes() {
+            return allocated.sum();
+        }
+
+        @Override
+        public String[] getImageTypes() {
+            return typeCounts().entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).toArray(String[]::new);
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+            nanos.reset();
+            pixels.reset();
+            allocated.reset();
+            maxNanos.set(0);
+            types.clear();
+        }
+    }
+
+    private static OperationStats register(String operation) {
+        OperationStats stats = new OperationStats();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("ImageEditor:type=Operation,name=" + ObjectName.quote(operation));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new StandardMBean(stats, OperationStatsMBean.class), name);
+            }
+        } catch (JMException | SecurityException e) {
+            // Counters still work through get(), toJson() and toPrometheus() without JMX
+        }
+        return stats;
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+            if (allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled()) {
+                return allocation;
+            }
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    private static void metric(StringBuilder text, String metric, String operation, double value) {
+        text.append(metric).append("{operation=\"").append(operation).append("\"} ").append(format(value)).append('\n');
+    }
+
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value)
+                : String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static String typeName(BufferedImage image) {
+        if (image == null) {
+            return "none";
+        }
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB: return "INT_RGB";
+            case BufferedImage.TYPE_INT_ARGB: return "INT_ARGB";
+            case BufferedImage.TYPE_INT_ARGB_PRE: return "INT_ARGB_PRE";
+            case BufferedImage.TYPE_INT_BGR: return "INT_BGR";
+            case BufferedImage.TYPE_3BYTE_BGR: return "3BYTE_BGR";
+            case BufferedImage.TYPE_4BYTE_ABGR: return "4BYTE_ABGR";
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE: return "4BYTE_ABGR_PRE";
+            case BufferedImage.TYPE_USHORT_565_RGB: return "USHORT_565_RGB";
+            case BufferedImage.TYPE_USHORT_555_RGB: return "USHORT_555_RGB";
+            case BufferedImage.TYPE_BYTE_GRAY: return "BYTE_GRAY";
+            case BufferedImage.TYPE_USHORT_GRAY: return "USHORT_GRAY";
+            case BufferedImage.TYPE_BYTE_BINARY: return "BYTE_BINARY";
+            case BufferedImage.TYPE_BYTE_INDEXED: return "BYTE_INDEXED";
+            default: return "CUSTOM";
+        }
+    }
+}
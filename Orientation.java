@@ -0,0 +1,246 @@
+import java.awt.Rectangle;
+
+/**
+ * One of the eight rotations and flips that map an image's pixel grid onto
+ * itself (the dihedral group of the square).
+ *
+ * Every orientation is a transpose followed by optional horizontal and
+ * vertical flips, so any chain of rotations and flips collapses into a single
+ * orientation and a single index remap.
+ */
+public enum Orientation {
+
+    IDENTITY(false, false, false),
+    FLIP_HORIZONTAL(false, true, false),
+    FLIP_VERTICAL(false, false, true),
+    ROTATE_180(false, true, true),
+    TRANSPOSE(true, false, false),
+    ROTATE_ANTI_CLOCKWISE(true, true, false),
+    ROTATE_CLOCKWISE(true, false, true),
+    TRANSVERSE(true, true, true);
+
+    /** The edge length of the square tiles used when transposing. */
+    static final int TILE = 64;
+
+    /** Whether destination x reads source y and vice versa. */
+    final boolean swapAxes;
+
+    /** Whether the source x coordinate is mirrored. */
+    final boolean flipX;
+
+    /** Whether the source y coordinate is mirrored. */
+    final boolean flipY;
+
+    Orientation(boolean swapAxes, boolean flipX, boolean flipY) {
+        this.swapAxes = swapAxes;
+        this.flipX = flipX;
+        this.flipY = flipY;
+    }
+
+    /**
+     * Returns the orientation equivalent to applying this one and then the next.
+     *
+     * @param next The orientation applied afterwards.
+     * @return The combined orientation.
+     */
+    public Orientation then(Orientation next) {
+        if (swapAxes) {
+            return of(!next.swapAxes, flipX ^ next.flipY, flipY ^ next.flipX);
+        }
+        return of(next.swapAxes, flipX ^ next.flipX, flipY ^ next.flipY);
+    }
+
+    /**
+     * Returns the orientation that undoes this one.
+     *
+     * @return The inverse orientation.
+     */
+    public Orientation inverse() {
+        for (Orientation candidate : values()) {
+            if (then(candidate) == IDENTITY) {
+                return candidate;
+            }
+        }
+        throw new AssertionError("Orientation without inverse: " + this);
+    }
+
+    /**
+     * Returns whether this orientation swaps the image's width and height.
+     *
+     * @return True for the 90-degree rotations and the transposes.
+     */
+    public boolean swapsDimensions() {
+        return swapAxes;
+    }
+
+    /**
+     * Returns the rectangle of the source image that a rectangle of the
+     * oriented image is read from.
+     *
+     * @param region    A rectangle in the coordinates of the oriented image.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @return The matching rectangle in source coordinates.
+     */
+    public Rectangle sourceRegion(Rectangle region, int srcWidth, int srcHeight) {
+        int x = swapAxes ? region.y : region.x;
+        int y = swapAxes ? region.x : region.y;
+        int width = swapAxes ? region.height : region.width;
+        int height = swapAxes ? region.width : region.height;
+        return new Rectangle(flipX ? srcWidth - x - width : x, flipY ? srcHeight - y - height : y, width, height);
+    }
+
+    /**
+     * Returns the orientation for a rotation by a multiple of 90 degrees.
+     *
+     * @param degrees The clockwise rotation in degrees; negative values rotate anti-clockwise.
+     * @return The matching orientation.
+     */
+    public static Orientation rotation(int degrees) {
+        if (degrees % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90 degrees: " + degrees);
+        }
+        switch (Math.floorMod(degrees / 90, 4)) {
+            case 1:
+                return ROTATE_CLOCKWISE;
+            case 2:
+                return ROTATE_180;
+            case 3:
+                return ROTATE_ANTI_CLOCKWISE;
+            default:
+                return IDENTITY;
+        }
+    }
+
+    /**
+     * Applies this orientation to a pixel buffer.
+     *
+     * @param src The buffer to transform.
+     * @return A new buffer holding the transformed pixels.
+     */
+    public PixelBuffer apply(PixelBuffer src) {
+        PixelBuffer dst = swapAxes ? PixelBuffer.allocate(src.height, src.width) : PixelBuffer.allocate(src.width, src.height);
+        ParallelRows.forEachBand(dst.width, dst.height, TILE, (fromRow, toRow) ->
+                remapRows(src.pixels, src.width, src.height, dst.pixels, null, fromRow, toRow));
+        return dst;
+    }
+
+    /**
+     * Remaps the rows [fromRow, toRow) of the destination, applying a point
+     * operation to every pixel on the way.
+     *
+     * @param src       The packed source pixels.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @param dst       The packed destination pixels, sized for this orientation.
+     * @param op        The operation to apply to each pixel, or null for a plain copy.
+     * @param fromRow   The first destination row to write.
+     * @param toRow     One past the last destination row to write.
+     */
+    void remapRows(int[] src, int srcWidth, int srcHeight, int[] dst, PointOp op, int fromRow, int toRow) {
+        remapRows(src, srcWidth, srcHeight, dst, 0, op, fromRow, toRow);
+    }
+
+    /**
+     * Remaps the rows [fromRow, toRow) of the destination into an array whose
+     * first row is destination row baseRow.
+     *
+     * Orientations that keep the axes read the source sequentially and are
+     * done row by row. Transposing ones walk the source down its columns, so
+     * they are done in TILE x TILE blocks: the TILE source rows a block reads
+     * and the TILE destination rows it writes both stay in cache.
+     *
+     * @param src       The packed source pixels.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @param dst       The array receiving the rows.
+     * @param baseRow   The destination row stored at index 0 of dst.
+     * @param op        The operation to apply to each pixel, or null for a plain copy.
+     * @param fromRow   The first destination row to write.
+     * @param toRow     One past the last destination row to write.
+     */
+    void remapRows(int[] src, int srcWidth, int srcHeight, int[] dst, int baseRow, PointOp op,
+                   int fromRow, int toRow) {
+        int dstWidth = swapAxes ? srcHeight : srcWidth;
+        if (!swapAxes) {
+            for (int y = fromRow; y < toRow; y++) {
+                remapRow(src, srcWidth, srcHeight, y, dst, (y - baseRow) * dstWidth, op);
+            }
+            return;
+        }
+
+        // Destination (x, y) reads source column y, row x (mirrored as needed)
+        int rowStep = flipY ? -srcWidth : srcWidth;
+        int rowStart = flipY ? (srcHeight - 1) * srcWidth : 0;
+        for (int tileY = fromRow; tileY < toRow; tileY += TILE) {
+            int tileYEnd = Math.min(tileY + TILE, toRow);
+            for (int tileX = 0; tileX < dstWidth; tileX += TILE) {
+                int tileXEnd = Math.min(tileX + TILE, dstWidth);
+                for (int y = tileY; y < tileYEnd; y++) {
+                    int sx = flipX ? srcWidth - 1 - y : y;
+                    int out = (y - baseRow) * dstWidth;
+                    int i = rowStart + tileX * rowStep + sx;
+                    if (op == null) {
+                        for (int x = tileX; x < tileXEnd; x++, i += rowStep) {
+                            dst[out + x] = src[i];
+                        }
+                    } else {
+                        for (int x = tileX; x < tileXEnd; x++, i += rowStep) {
+                            dst[out + x] = op.apply(src[i]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Remaps a single destination row into an arbitrary position of an array.
+     *
+     * @param src       The packed source pixels.
+     * @param srcWidth  The source width.
+     * @param srcHeight The source height.
+     * @param y         The destination row to produce.
+     * @param dst       The array receiving the row.
+     * @param out       The index in dst of the row's first pixel.
+     * @param op        The operation to apply to each pixel, or null for a plain copy.
+     */
+    void remapRow(int[] src, int srcWidth, int srcHeight, int y, int[] dst, int out, PointOp op) {
+        int dstWidth = swapAxes ? srcHeight : srcWidth;
+        // Step through the source for one destination row: along a source row
+        // when the axes are kept, down a source column when they are swapped
+        int step = swapAxes ? (flipY ? -srcWidth : srcWidth) : (flipX ? -1 : 1);
+        int start;
+        if (swapAxes) {
+            int sx = flipX ? srcWidth - 1 - y : y;
+            start = (flipY ? srcHeight - 1 : 0) * srcWidth + sx;
+        } else {
+            int sy = flipY ? srcHeight - 1 - y : y;
+            start = sy * srcWidth + (flipX ? srcWidth - 1 : 0);
+        }
+        if (op == null) {
+            if (step == 1) {
+                System.arraycopy(src, start, dst, out, dstWidth);
+                return;
+            }
+            for (int x = 0, i = start; x < dstWidth; x++, i += step) {
+                dst[out + x] = src[i];
+            }
+        } else if (step == 1 && start == out) {
+            op.applyTo(src, dst, out, out + dstWidth);
+        } else {
+            for (int x = 0, i = start; x < dstWidth; x++, i += step) {
+                dst[out + x] = op.apply(src[i]);
+            }
+        }
+    }
+
+    private static Orientation of(boolean swapAxes, boolean flipX, boolean flipY) {
+        for (Orientation candidate : values()) {
+            if (candidate.swapAxes == swapAxes && candidate.flipX == flipX && candidate.flipY == flipY) {
+                return candidate;
+            }
+        }
+        throw new AssertionError();
+    }
+}
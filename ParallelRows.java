@@ -0,0 +1,161 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs row-oriented filter kernels over horizontal bands of an image on a
+ * shared ForkJoinPool.
+ *
+ * Kernels receive a half-open range of output rows and must only write those
+ * rows, which keeps every band independent and makes the parallel result
+ * identical to the serial one. Neighborhood kernels read whatever halo rows
+ * they need around their band from the (unmodified) source.
+ */
+public final class ParallelRows {
+
+    /** Below this many pixels per band the split overhead outweighs the gain. */
+    private static final int MIN_BAND_PIXELS = 1 << 15;
+
+    private static volatile int parallelism = 1;
+    private static volatile Workers workers;
+
+    /**
+     * A kernel that processes the rows [fromRow, toRow) of an image.
+     */
+    @FunctionalInterface
+    public interface RowKernel {
+        void apply(int fromRow, int toRow);
+    }
+
+    private ParallelRows() {
+    }
+
+    /**
+     * Sets how many threads filters may use. A level of 1 (the default) runs
+     * every kernel on the calling thread.
+     *
+     * @param level The number of worker threads to use (at least 1).
+     */
+    public static synchronized void setParallelism(int level) {
+        if (level < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + level);
+        }
+        if (level == parallelism) {
+            return;
+        }
+        Workers previous = workers;
+        workers = level > 1 ? new Workers(new ForkJoinPool(level)) : null;
+        parallelism = level;
+        // Callers already running on the old pool keep it until they return
+        if (previous != null && previous.users == 0) {
+            previous.pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of threads filters may use.
+     *
+     * @return The configured parallelism level.
+     */
+    public static int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Runs a kernel over all rows of an image, split into bands when running
+     * in parallel.
+     *
+     * @param width  The image width, used to size the bands.
+     * @param height The number of rows to process.
+     * @param kernel The kernel to run.
+     */
+    public static void forEachBand(int width, int height, RowKernel kernel) {
+        forEachBand(width, height, 1, kernel);
+    }
+
+    /**
+     * Runs a kernel over all rows of an image with a lower bound on the band
+     * height, for neighborhood kernels that pay a fixed halo cost per band.
+     *
+     * @param width   The image width, used to size the bands.
+     * @param height  The number of rows to process.
+     * @param minRows The smallest band height worth splitting off.
+     * @param kernel  The kernel to run.
+     */
+    public static void forEachBand(int width, int height, int minRows, RowKernel kernel) {
+        int grain = Math.max(minRows, MIN_BAND_PIXELS / Math.max(1, width));
+        Workers current = workers == null || height <= grain ? null : acquire();
+        if (current == null) {
+            kernel.apply(0, height);
+            return;
+        }
+        try {
+            // Aim for a few bands per thread so uneven rows still balance out
+            int bands = Math.min(current.pool.getParallelism() * 4, (height + grain - 1) / grain);
+            int rowsPerBand = (height + bands - 1) / bands;
+            current.pool.invoke(new BandTask(kernel, 0, height, Math.max(grain, rowsPerBand)));
+        } finally {
+            release(current);
+        }
+    }
+
+    /**
+     * Registers a caller of the current pool, so setParallelism does not shut
+     * the pool down under it.
+     */
+    private static synchronized Workers acquire() {
+        Workers current = workers;
+        if (current != null) {
+            current.users++;
+        }
+        return current;
+    }
+
+    private static synchronized void release(Workers current) {
+        current.users--;
+        if (current.users == 0 && current != workers) {
+            current.pool.shutdown();
+        }
+    }
+
+    /**
+     * A pool together with the number of callers currently running on it.
+     * The count is guarded by the ParallelRows class lock.
+     */
+    private static final class Workers {
+
+        final ForkJoinPool pool;
+        int users;
+
+        Workers(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+    }
+
+    private static final class BandTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final RowKernel kernel;
+        private final int fromRow;
+        private final int toRow;
+        private final int grain;
+
+        BandTask(RowKernel kernel, int fromRow, int toRow, int grain) {
+            this.kernel = kernel;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (toRow - fromRow <= grain) {
+                kernel.apply(fromRow, toRow);
+                return;
+            }
+            int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new BandTask(kernel, fromRow, middle, grain),
+                      new BandTask(kernel, middle, toRow, grain));
+        }
+    }
+}
@@ -0,0 +1,326 @@
+import java.awt.Rectangle;
+import java.awt.image.*;
+
+/**
+ * A packed, row-major view of an image's pixels as 0xAARRGGBB ints.
+ *
+ * Filters read and write the backing int[] directly instead of going through
+ * BufferedImage.getRGB/setRGB and java.awt.Color, so their inner loops do no
+ * per-pixel allocation or ColorModel dispatch.
+ */
+public final class PixelBuffer {
+
+    private static final int[] RGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff};
+
+    /** The width of the buffer in pixels. */
+    public final int width;
+
+    /** The height of the buffer in pixels. */
+    public final int height;
+
+    /** The packed pixels, row-major with a stride equal to {@link #width}. */
+    public final int[] pixels;
+
+    private PixelBuffer(int width, int height, int[] pixels) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Allocates a new, zero-filled buffer.
+     *
+     * @param width  The width of the buffer in pixels.
+     * @param height The height of the buffer in pixels.
+     * @return A new PixelBuffer of the given size.
+     */
+    public static PixelBuffer allocate(int width, int height) {
+        return new PixelBuffer(width, height, new int[width * height]);
+    }
+
+    /**
+     * Wraps an existing packed pixel array without copying it.
+     *
+     * @param width  The width of the buffer in pixels.
+     * @param height The height of the buffer in pixels.
+     * @param pixels The packed pixels, at least width * height long.
+     * @return A PixelBuffer backed by the given array.
+     */
+    public static PixelBuffer wrap(int width, int height, int[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel array too small for " + width + "x" + height);
+        }
+        return new PixelBuffer(width, height, pixels);
+    }
+
+    /**
+     * Returns the pixels of a BufferedImage as a packed buffer.
+     *
+     * Images that are already TYPE_INT_RGB or TYPE_INT_ARGB are shared with the
+     * image's DataBufferInt and are not copied, so callers must treat the result as
+     * read-only unless they own the image. TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR are
+     * unpacked straight from their DataBufferByte; every other type falls back to
+     * a single bulk getRGB call.
+     *
+     * @param inputImage The image to read.
+     * @return A PixelBuffer holding the image's pixels.
+     */
+    public static PixelBuffer of(BufferedImage inputImage) {
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+        int[] shared = sharedIntPixels(inputImage);
+        if (shared != null) {
+            return new PixelBuffer(width, height, shared);
+        }
+
+        int[] pixels = new int[width * height];
+        byte[] bytes = sharedBytePixels(inputImage);
+        if (bytes != null && inputImage.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            // Bytes are stored as B, G, R for each pixel
+            ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+                for (int i = fromRow * width, b = i * 3, n = toRow * width; i < n; i++, b += 3) {
+                    pixels[i] = 0xff000000
+                            | (bytes[b + 2] & 0xff) << 16
+                            | (bytes[b + 1] & 0xff) << 8
+                            | (bytes[b] & 0xff);
+                }
+            });
+        } else if (bytes != null && inputImage.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            // Bytes are stored as A, B, G, R for each pixel
+            ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+                for (int i = fromRow * width, b = i * 4, n = toRow * width; i < n; i++, b += 4) {
+                    pixels[i] = (bytes[b] & 0xff) << 24
+                            | (bytes[b + 3] & 0xff) << 16
+                            | (bytes[b + 2] & 0xff) << 8
+                            | (bytes[b + 1] & 0xff);
+                }
+            });
+        } else {
+            // Let the ColorModel convert the whole image in one call
+            inputImage.getRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return new PixelBuffer(width, height, pixels);
+    }
+
+    /**
+     * Reads a rectangle of a BufferedImage as a packed buffer, touching only
+     * the pixels inside it.
+     *
+     * @param inputImage The image to read.
+     * @param region     The rectangle to read, within the image bounds.
+     * @return A new PixelBuffer of the region's size.
+     */
+    public static PixelBuffer of(BufferedImage inputImage, Rectangle region) {
+        PixelBuffer dst = allocate(region.width, region.height);
+        int width = inputImage.getWidth();
+        int[] ints = sharedIntPixels(inputImage);
+        byte[] bytes = inputImage.getType() == BufferedImage.TYPE_3BYTE_BGR ? sharedBytePixels(inputImage) : null;
+        for (int y = 0; y < region.height; y++) {
+            int in = (region.y + y) * width + region.x;
+            int out = y * region.width;
+            if (ints != null) {
+                System.arraycopy(ints, in, dst.pixels, out, region.width);
+            } else if (bytes != null) {
+                for (int x = 0, b = in * 3; x < region.width; x++, b += 3) {
+                    dst.pixels[out + x] = 0xff000000
+                            | (bytes[b + 2] & 0xff) << 16
+                            | (bytes[b + 1] & 0xff) << 8
+                            | (bytes[b] & 0xff);
+                }
+            } else {
+                inputImage.getRGB(region.x, region.y + y, region.width, 1, dst.pixels, out, region.width);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Copies a rectangle of this buffer into a new buffer.
+     *
+     * @param region The rectangle to copy, within this buffer's bounds.
+     * @return A new PixelBuffer of the region's size.
+     */
+    public PixelBuffer crop(Rectangle region) {
+        PixelBuffer dst = allocate(region.width, region.height);
+        for (int y = 0; y < region.height; y++) {
+            System.arraycopy(pixels, (region.y + y) * width + region.x, dst.pixels, y * region.width, region.width);
+        }
+        return dst;
+    }
+
+    /**
+     * Copies this buffer into a rectangle of a BufferedImage, leaving the rest
+     * of the image untouched.
+     *
+     * @param image The image to write.
+     * @param x     The column of the image that receives this buffer's first column.
+     * @param y     The row of the image that receives this buffer's first row.
+     */
+    public void writeTo(BufferedImage image, int x, int y) {
+        int imageWidth = image.getWidth();
+        int[] ints = sharedIntPixels(image);
+        byte[] bytes = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? sharedBytePixels(image) : null;
+        for (int row = 0; row < height; row++) {
+            int out = (y + row) * imageWidth + x;
+            int in = row * width;
+            if (ints != null) {
+                System.arraycopy(pixels, in, ints, out, width);
+            } else if (bytes != null) {
+                for (int i = 0, b = out * 3; i < width; i++, b += 3) {
+                    int rgb = pixels[in + i];
+                    bytes[b] = (byte) rgb;
+                    bytes[b + 1] = (byte) (rgb >> 8);
+                    bytes[b + 2] = (byte) (rgb >> 16);
+                }
+            } else {
+                image.setRGB(x, y + row, width, 1, pixels, in, width);
+            }
+        }
+    }
+
+    /**
+     * Converts this buffer into a BufferedImage of the requested type.
+     *
+     * For TYPE_INT_RGB and TYPE_INT_ARGB the returned image shares this buffer's
+     * array; TYPE_3BYTE_BGR is packed directly into the image's DataBufferByte.
+     *
+     * @param imageType The BufferedImage type of the result.
+     * @return A BufferedImage holding this buffer's pixels.
+     */
+    public BufferedImage toImage(int imageType) {
+        if (imageType == BufferedImage.TYPE_INT_RGB || imageType == BufferedImage.TYPE_INT_ARGB) {
+            return wrapIntImage(imageType);
+        }
+
+        BufferedImage outputImage = new BufferedImage(width, height, imageType);
+        if (imageType == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] bytes = sharedBytePixels(outputImage);
+            ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+                for (int i = fromRow * width, b = i * 3, n = toRow * width; i < n; i++, b += 3) {
+                    int rgb = pixels[i];
+                    bytes[b] = (byte) rgb;
+                    bytes[b + 1] = (byte) (rgb >> 8);
+                    bytes[b + 2] = (byte) (rgb >> 16);
+                }
+            });
+        } else {
+            // Let the ColorModel convert the whole image in one call
+            outputImage.setRGB(0, 0, width, height, pixels, 0, width);
+        }
+        return outputImage;
+    }
+
+    /**
+     * Reads one row of an image as packed pixels, without touching the rest of
+     * the image.
+     *
+     * @param image The image to read.
+     * @param y     The row to read.
+     * @param row   The array receiving the row, at least width long.
+     */
+    public static void readRow(BufferedImage image, int y, int[] row) {
+        int width = image.getWidth();
+        int[] ints = sharedIntPixels(image);
+        if (ints != null) {
+            System.arraycopy(ints, y * width, row, 0, width);
+            return;
+        }
+        byte[] bytes = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? sharedBytePixels(image) : null;
+        if (bytes != null) {
+            for (int x = 0, b = y * width * 3; x < width; x++, b += 3) {
+                row[x] = 0xff000000 | (bytes[b + 2] & 0xff) << 16 | (bytes[b + 1] & 0xff) << 8 | (bytes[b] & 0xff);
+            }
+            return;
+        }
+        image.getRGB(0, y, width, 1, row, 0, width);
+    }
+
+    /**
+     * Writes one row of packed pixels into an image.
+     *
+     * @param image The image to write.
+     * @param y     The row to write.
+     * @param row   The packed pixels of the row, at least width long.
+     */
+    public static void writeRow(BufferedImage image, int y, int[] row) {
+        int width = image.getWidth();
+        int[] ints = sharedIntPixels(image);
+        if (ints != null) {
+            System.arraycopy(row, 0, ints, y * width, width);
+            return;
+        }
+        byte[] bytes = image.getType() == BufferedImage.TYPE_3BYTE_BGR ? sharedBytePixels(image) : null;
+        if (bytes != null) {
+            for (int x = 0, b = y * width * 3; x < width; x++, b += 3) {
+                int rgb = row[x];
+                bytes[b] = (byte) rgb;
+                bytes[b + 1] = (byte) (rgb >> 8);
+                bytes[b + 2] = (byte) (rgb >> 16);
+            }
+            return;
+        }
+        image.setRGB(0, y, width, 1, row, 0, width);
+    }
+
+    /**
+     * Returns the DataBufferInt array behind a TYPE_INT_RGB or TYPE_INT_ARGB image,
+     * or null if the image has any other layout.
+     *
+     * @param image The image to inspect.
+     * @return The shared pixel array, or null.
+     */
+    static int[] sharedIntPixels(BufferedImage image) {
+        int type = image.getType();
+        if (type != BufferedImage.TYPE_INT_RGB && type != BufferedImage.TYPE_INT_ARGB) {
+            return null;
+        }
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        // Sub-images and offset rasters do not start at index 0 with a stride of width
+        if (sampleModel.getScanlineStride() != image.getWidth()
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+        return ((DataBufferInt) raster.getDataBuffer()).getData();
+    }
+
+    /**
+     * Returns the DataBufferByte array behind a pixel-interleaved byte image whose
+     * rows are tightly packed, or null if the image has any other layout.
+     *
+     * @param image The image to inspect.
+     * @return The shared byte array, or null.
+     */
+    static byte[] sharedBytePixels(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        if (!(raster.getDataBuffer() instanceof DataBufferByte)
+                || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+            return null;
+        }
+        ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+        if (sampleModel.getScanlineStride() != image.getWidth() * sampleModel.getPixelStride()
+                || raster.getSampleModelTranslateX() != 0 || raster.getSampleModelTranslateY() != 0
+                || raster.getDataBuffer().getOffset() != 0) {
+            return null;
+        }
+        return ((DataBufferByte) raster.getDataBuffer()).getData();
+    }
+
+    private BufferedImage wrapIntImage(int imageType) {
+        boolean alpha = imageType == BufferedImage.TYPE_INT_ARGB;
+        DirectColorModel colorModel = alpha
+                ? new DirectColorModel(32, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2], 0xff000000)
+                : new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+        int[] masks = alpha
+                ? new int[] {RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2], 0xff000000}
+                : RGB_MASKS;
+        DataBufferInt dataBuffer = new DataBufferInt(pixels, width * height);
+        WritableRaster raster = Raster.createPackedRaster(dataBuffer, width, height, width, masks, null);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.function.IntUnaryOperator;
+
+/**
+ * A per-pixel color operation: the output pixel depends only on the input
+ * pixel at the same position.
+ *
+ * Point operations commute with rotations and flips, so a chain of them can
+ * be fused into a single pass over the pixels. Operations that treat each
+ * channel independently are returned as a {@link ChannelLut}.
+ */
+@FunctionalInterface
+public interface PointOp {
+
+    /**
+     * Maps one packed pixel to its new value.
+     *
+     * @param rgb The input pixel as 0xAARRGGBB.
+     * @return The output pixel as 0xffRRGGBB.
+     */
+    int apply(int rgb);
+
+    /**
+     * Applies the operation to the pixels [from, to) of a packed raster. The
+     * source and destination may be the same array.
+     *
+     * @param src  The packed source pixels.
+     * @param dst  The packed destination pixels.
+     * @param from The first pixel index to process.
+     * @param to   One past the last pixel index to process.
+     */
+    default void applyTo(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            dst[i] = apply(src[i]);
+        }
+    }
+
+    /**
+     * Returns an operation that applies this one and then the next.
+     *
+     * @param next The operation to apply afterwards.
+     * @return The composed operation.
+     */
+    default PointOp andThen(PointOp next) {
+        return rgb -> next.apply(apply(rgb));
+    }
+
+    /**
+     * Increases each channel by a percentage of its value.
+     *
+     * @param increase The percentage by which to increase brightness.
+     * @return The brightness operation.
+     */
+    static PointOp brightness(int increase) {
+        return ChannelLut.cached("brightness:" + increase, () -> ChannelLut.of(v -> v + (increase * v) / 100));
+    }
+
+    /**
+     * Scales each channel's distance from mid-gray by a factor.
+     *
+     * @param factor The contrast factor to apply.
+     * @return The contrast operation.
+     */
+    static PointOp contrast(int factor) {
+        return ChannelLut.cached("contrast:" + factor, () -> ChannelLut.of(v -> factor * (v - 128) + 128));
+    }
+
+    /**
+     * Adds a fixed intensity to the red channel.
+     *
+     * @param intensity The amount to add.
+     * @return The red light operation.
+     */
+    static PointOp redLight(int intensity) {
+        return ChannelMixer.tint(intensity, 0, 0).toLut();
+    }
+
+    /**
+     * Adds a fixed intensity to the green channel.
+     *
+     * @param intensity The amount to add.
+     * @return The green light operation.
+     */
+    static PointOp greenLight(int intensity) {
+        return ChannelMixer.tint(0, intensity, 0).toLut();
+    }
+
+    /**
+     * Adds a fixed intensity to the blue channel.
+     *
+     * @param intensity The amount to add.
+     * @return The blue light operation.
+     */
+    static PointOp blueLight(int intensity) {
+        return ChannelMixer.tint(0, 0, intensity).toLut();
+    }
+
+    /**
+     * Stretches each channel linearly so that low maps to 0 and high to 255,
+     * clipping values outside that range.
+     *
+     * @param low  The value that becomes black.
+     * @param high The value that becomes white; if not above low, the channel is left alone.
+     * @return The levels operation.
+     */
+    static PointOp levels(int low, int high) {
+        return levels(low, high, low, high, low, high);
+    }
+
+    /**
+     * Stretches each channel linearly between its own black and white points.
+     *
+     * @param redLow    The red value that becomes 0.
+     * @param redHigh   The red value that becomes 255.
+     * @param greenLow  The green value that becomes 0.
+     * @param greenHigh The green value that becomes 255.
+     * @param blueLow   The blue value that becomes 0.
+     * @param blueHigh  The blue value that becomes 255.
+     * @return The levels operation.
+     */
+    static PointOp levels(int redLow, int redHigh, int greenLow, int greenHigh, int blueLow, int blueHigh) {
+        String key = "levels:" + redLow + ":" + redHigh + ":" + greenLow + ":" + greenHigh + ":" + blueLow + ":" + blueHigh;
+        return ChannelLut.cached(key, () ->
+                ChannelLut.of(stretch(redLow, redHigh), stretch(greenLow, greenHigh), stretch(blueLow, blueHigh)));
+    }
+
+    private static IntUnaryOperator stretch(int low, int high) {
+        if (high <= low) {
+            return IntUnaryOperator.identity();
+        }
+        return v -> ((v - low) * 255 * 2 + (high - low)) / (2 * (high - low));
+    }
+
+    /**
+     * Replaces each channel with 255 minus its value.
+     *
+     * @return The invert operation.
+     */
+    static PointOp invert() {
+        return ChannelLut.cached("invert", () -> ChannelLut.of(v -> 255 - v));
+    }
+
+    /**
+     * Replaces all three channels with the pixel's Rec. 601 luma, computed in
+     * fixed point on the gamma-encoded values.
+     *
+     * @return The grayscale operation.
+     */
+    static PointOp grayscale() {
+        return GrayscaleConverter.BT601;
+    }
+
+    /**
+     * Clamps a channel value to the range 0-255.
+     *
+     * @param value The value to clamp.
+     * @return The clamped value.
+     */
+    static int clamp(int value) {
+        return Math.min(255, Math.max(0, value));
+    }
+}
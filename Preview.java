@@ -0,0 +1,271 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A small rendering of an edit, with the full-resolution render deferred until
+ * it is asked for.
+ *
+ * The source is decoded with ImageReadParam source subsampling, so the
+ * decoder never materializes pixels the preview cannot show. The decoded
+ * raster is area-averaged down to the requested size, and then the operation
+ * chain runs on it with blur radii scaled to the preview. The full render
+ * happens the first time {@link #fullResolution()} is called.
+ *
+ * <pre>
+ * Preview preview = Preview.of(new File("photo.jpg"), ImagePipeline.parse("blur:12,rotate:cw"), 512);
+ * show(preview.image());                       // milliseconds
+ * save(preview.fullResolution());              // only if the user keeps the edit
+ * </pre>
+ */
+public final class Preview {
+
+    private final Source source;
+    private final ImagePipeline pipeline;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final BufferedImage image;
+    private BufferedImage fullResolution;
+
+    private Preview(Source source, ImagePipeline pipeline, int maxSize) throws IOException {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Preview size must be at least 1: " + maxSize);
+        }
+        this.source = source;
+        this.pipeline = pipeline;
+
+        try (ImageInputStream in = source.open()) {
+            ImageReader reader = reader(in);
+            try {
+                reader.setInput(in, true, true);
+                sourceWidth = reader.getWidth(0);
+                sourceHeight = reader.getHeight(0);
+
+                // Decode no fewer pixels than the preview needs, then average down
+                int subsampling = Math.max(1, Math.max(sourceWidth, sourceHeight) / maxSize);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                Metrics.Sample decode = Metrics.start(Metrics.DECODE, null);
+                BufferedImage decoded = reader.read(0, param);
+                Metrics.stop(decode, decoded);
+
+                double fit = Math.min(1.0, (double) maxSize / Math.max(sourceWidth, sourceHeight));
+                int width = Math.max(1, (int) Math.round(sourceWidth * fit));
+                int height = Math.max(1, (int) Math.round(sourceHeight * fit));
+                PixelBuffer small = areaAverage(PixelBuffer.of(decoded), width, height);
+                this.image = pipeline.scaled((double) width / sourceWidth)
+                        .apply(small).toImage(BufferedImage.TYPE_INT_RGB);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Renders a preview of an image file.
+     *
+     * @param input    The image file.
+     * @param pipeline The operations to apply.
+     * @param maxSize  The longest side of the preview in pixels.
+     * @return The preview.
+     * @throws IOException If the file cannot be decoded.
+     */
+    public static Preview of(File input, ImagePipeline pipeline, int maxSize) throws IOException {
+        return new Preview(() -> ImageIO.createImageInputStream(input), pipeline, maxSize);
+    }
+
+    /**
+     * Renders a preview of an encoded image held in memory.
+     *
+     * @param encoded  The encoded image, e.g. an uploaded JPEG.
+     * @param pipeline The operations to apply.
+     * @param maxSize  The longest side of the preview in pixels.
+     * @return The preview.
+     * @throws IOException If the bytes cannot be decoded.
+     */
+    public static Preview of(byte[] encoded, ImagePipeline pipeline, int maxSize) throws IOException {
+        return new Preview(() -> ImageIO.createImageInputStream(new ByteArrayInputStream(encoded)), pipeline, maxSize);
+    }
+
+    /**
+     * Returns the preview rendering.
+     *
+     * @return A TYPE_INT_RGB image whose longest side is at most the requested size.
+     */
+    public BufferedImage image() {
+        return image;
+    }
+
+    /** Returns the width of the full-resolution source image. */
+    public int sourceWidth() {
+        return sourceWidth;
+    }
+
+    /** Returns the height of the full-resolution source image. */
+    public int sourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Decodes the source at full resolution and runs the operation chain on it.
+     * The result is computed once and kept.
+     *
+     * @return The full-resolution render.
+     * @throws IOException If the source cannot be decoded.
+     */
+    public synchronized BufferedImage fullResolution() throws IOException {
+        if (fullResolution == null) {
+            try (ImageInputStream in = source.open()) {
+                ImageReader reader = reader(in);
+                try {
+                    reader.setInput(in, true, true);
+                    Metrics.Sample decode = Metrics.start(Metrics.DECODE, null);
+                    BufferedImage decoded = reader.read(0);
+                    Metrics.stop(decode, decoded);
+                    fullResolution = pipeline.apply(decoded);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+        return fullResolution;
+    }
+
+    /**
+     * Renders a preview from the command line.
+     *
+     * Usage: Preview &lt;input&gt; &lt;operation chain&gt; &lt;output&gt; [max size]
+     *
+     * @param args The input, chain, output and optional preview size arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: Preview <input> <operation chain> <output> [max size]");
+            return;
+        }
+        try {
+            int maxSize = args.length == 4 ? Integer.parseInt(args[3]) : 512;
+            String output = args[2];
+            Preview preview = Preview.of(new File(args[0]), ImagePipeline.parse(args[1]), maxSize);
+            ImageIO.write(preview.image(), output.substring(output.lastIndexOf('.') + 1), new File(output));
+            System.out.println("Done!");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Shrinks a buffer by averaging, for every output pixel, all the source
+     * pixels its footprint covers, weighted by how much of each is covered.
+     *
+     * @param src    The pixels to shrink.
+     * @param width  The output width, at most the source width.
+     * @param height The output height, at most the source height.
+     * @return A new buffer of the given size.
+     */
+    static PixelBuffer areaAverage(PixelBuffer src, int width, int height) {
+        if (width == src.width && height == src.height) {
+            return src;
+        }
+        int[] xSpans = spans(src.width, width);
+        int[] ySpans = spans(src.height, height);
+
+        // Horizontal pass: each source row becomes width weighted channel sums
+        int[] rows = new int[src.height * width * 3];
+        ParallelRows.forEachBand(src.width, src.height, (fromRow, toRow) -> {
+            for (int y = fromRow; y < toRow; y++) {
+                int in = y * src.width;
+                int out = y * width * 3;
+                for (int x = 0; x < width; x++, out += 3) {
+                    int r = 0;
+                    int g = 0;
+                    int b = 0;
+                    for (int k = xSpans[x * 2]; k < xSpans[x * 2 + 1]; k++) {
+                        int w = coverage(k, x, src.width, width);
+                        int rgb = src.pixels[in + k];
+                        r += w * ((rgb >> 16) & 0xff);
+                        g += w * ((rgb >> 8) & 0xff);
+                        b += w * (rgb & 0xff);
+                    }
+                    rows[out] = r;
+                    rows[out + 1] = g;
+                    rows[out + 2] = b;
+                }
+            }
+        });
+
+        // Vertical pass: combine the rows each output row covers and normalize
+        PixelBuffer dst = PixelBuffer.allocate(width, height);
+        long area = (long) src.width * src.height;
+        ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+            long[] sums = new long[width * 3];
+            for (int y = fromRow; y < toRow; y++) {
+                Arrays.fill(sums, 0);
+                for (int k = ySpans[y * 2]; k < ySpans[y * 2 + 1]; k++) {
+                    long w = coverage(k, y, src.height, height);
+                    for (int i = 0, row = k * width * 3; i < sums.length; i++) {
+                        sums[i] += w * rows[row + i];
+                    }
+                }
+                for (int x = 0, i = 0, out = y * width; x < width; x++, i += 3) {
+                    dst.pixels[out + x] = 0xff000000
+                            | (int) ((sums[i] + area / 2) / area) << 16
+                            | (int) ((sums[i + 1] + area / 2) / area) << 8
+                            | (int) ((sums[i + 2] + area / 2) / area);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Returns, for each output index i, the first source index its footprint
+     * touches at [2i] and one past the last at [2i + 1].
+     */
+    private static int[] spans(int srcSize, int dstSize) {
+        int[] spans = new int[dstSize * 2];
+        for (int i = 0; i < dstSize; i++) {
+            // Output i covers [i * srcSize, (i + 1) * srcSize) in units of 1 / dstSize source pixels
+            spans[i * 2] = (int) ((long) i * srcSize / dstSize);
+            spans[i * 2 + 1] = (int) (((long) (i + 1) * srcSize + dstSize - 1) / dstSize);
+        }
+        return spans;
+    }
+
+    /**
+     * Returns how much of source pixel k lies in the footprint of output pixel
+     * i, in units of 1 / dstSize of a source pixel.
+     */
+    private static int coverage(int k, int i, int srcSize, int dstSize) {
+        long from = Math.max((long) k * dstSize, (long) i * srcSize);
+        long to = Math.min((long) (k + 1) * dstSize, (long) (i + 1) * srcSize);
+        return (int) Math.max(0, to - from);
+    }
+
+    private static ImageReader reader(ImageInputStream in) throws IOException {
+        if (in == null) {
+            throw new IOException("Cannot open image");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format");
+        }
+        return readers.next();
+    }
+
+    /**
+     * Opens a fresh stream over the encoded source.
+     */
+    private interface Source {
+        ImageInputStream open() throws IOException;
+    }
+}
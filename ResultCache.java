@@ -0,0 +1,251 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A content-addressed cache of pipeline results.
+ *
+ * Results are keyed by a SHA-256 of the input's pixels and the pipeline's
+ * canonical chain ({@link ImagePipeline#toString()}), so the same edit of the
+ * same picture hits regardless of where the picture came from. Rendered images
+ * are kept in an in-memory LRU bounded by raster bytes. When a directory is
+ * given, encoded outputs are also written there, and a hit on that tier skips
+ * both the filters and the encoder.
+ *
+ * Cached images are shared between callers and must not be modified.
+ */
+public final class ResultCache {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final long maxBytes;
+    private final Path diskDir;
+    private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    private long memoryHits;
+    private long diskHits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a memory-only cache.
+     *
+     * @param maxBytes The most raster memory the cache may hold.
+     */
+    public ResultCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Creates a cache with a memory tier and an on-disk tier of encoded outputs.
+     *
+     * @param maxBytes The most raster memory the cache may hold.
+     * @param diskDir  The directory for encoded outputs, or null for none.
+     * @throws UncheckedIOException If the directory cannot be created.
+     */
+    public ResultCache(long maxBytes, Path diskDir) {
+        this.maxBytes = maxBytes;
+        this.diskDir = diskDir;
+        if (diskDir != null) {
+            try {
+                Files.createDirectories(diskDir);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the pipeline's result for an image, rendering it only on a miss.
+     *
+     * @param inputImage The image to process.
+     * @param pipeline   The operations to apply.
+     * @return The cached or newly rendered result, which must not be modified.
+     */
+    public BufferedImage apply(BufferedImage inputImage, ImagePipeline pipeline) {
+        return render(key(inputImage, pipeline), inputImage, pipeline);
+    }
+
+    /**
+     * Returns the pipeline's result for an image encoded in the given format
+     * with the writer's default settings.
+     *
+     * @param inputImage The image to process.
+     * @param pipeline   The operations to apply.
+     * @param format     The ImageIO format name, e.g. "jpg" or "png".
+     * @return The encoded result.
+     * @throws IOException If encoding or the disk tier fails.
+     */
+    public byte[] encoded(BufferedImage inputImage, ImagePipeline pipeline, String format) throws IOException {
+        return encoded(inputImage, pipeline, ImageEncoder.of(format));
+    }
+
+    /**
+     * Returns the pipeline's result for an image encoded by the given encoder.
+     *
+     * With a disk tier, a hit returns the stored file without filtering or
+     * encoding; a miss renders through the memory tier and stores the encoding.
+     * Encodings with different settings are stored separately.
+     *
+     * @param inputImage The image to process.
+     * @param pipeline   The operations to apply.
+     * @param encoder    The format and settings to encode with.
+     * @return The encoded result.
+     * @throws IOException If encoding or the disk tier fails.
+     */
+    public byte[] encoded(BufferedImage inputImage, ImagePipeline pipeline, ImageEncoder encoder) throws IOException {
+        String key = key(inputImage, pipeline);
+        String settings = encoder.toString();
+        String name = settings.equals(encoder.format()) ? key : key + "-" + fileSafe(settings);
+        Path file = diskDir == null ? null : diskDir.resolve(name + "." + encoder.format());
+        if (file != null && Files.isRegularFile(file)) {
+            synchronized (this) {
+                diskHits++;
+            }
+            return Files.readAllBytes(file);
+        }
+
+        BufferedImage outputImage = render(key, inputImage, pipeline);
+        byte[] encoded = encoder.encode(outputImage);
+        if (file != null) {
+            // Write beside the final name and move, so readers never see a partial file
+            Path temp = Files.createTempFile(diskDir, key, ".tmp");
+            Files.write(temp, encoded);
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return encoded;
+    }
+
+    /**
+     * Computes the cache key of a pipeline applied to an image.
+     *
+     * @param inputImage The image to process.
+     * @param pipeline   The operations to apply.
+     * @return A hex SHA-256 of the pixels, the dimensions and the canonical chain.
+     */
+    public static String key(BufferedImage inputImage, ImagePipeline pipeline) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        int width = inputImage.getWidth();
+        int height = inputImage.getHeight();
+        ByteBuffer bytes = ByteBuffer.allocate(width * 4);
+        int[] row = new int[width];
+        bytes.putInt(width).putInt(height);
+        digest.update(bytes.array(), 0, 8);
+        for (int y = 0; y < height; y++) {
+            PixelBuffer.readRow(inputImage, y, row);
+            bytes.clear();
+            bytes.asIntBuffer().put(row);
+            digest.update(bytes.array());
+        }
+        digest.update(pipeline.toString().getBytes(StandardCharsets.UTF_8));
+
+        byte[] hash = digest.digest();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[i * 2] = HEX[(hash[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = HEX[hash[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Escapes every character outside [A-Za-z0-9.=-] as '_' and four hex
+     * digits, so distinct settings always give distinct file names.
+     */
+    private static String fileSafe(String settings) {
+        StringBuilder name = new StringBuilder(settings.length());
+        for (int i = 0; i < settings.length(); i++) {
+            char c = settings.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '.' || c == '=' || c == '-') {
+                name.append(c);
+            } else {
+                name.append('_');
+                for (int shift = 12; shift >= 0; shift -= 4) {
+                    name.append(HEX[(c >> shift) & 0xf]);
+                }
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Drops every image held in memory. The disk tier is left alone.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+    }
+
+    /** Returns the raster bytes currently held in memory. */
+    public synchronized long memoryBytes() {
+        return memoryBytes;
+    }
+
+    /** Returns how many lookups were served from memory. */
+    public synchronized long memoryHits() {
+        return memoryHits;
+    }
+
+    /** Returns how many encoded lookups were served from disk. */
+    public synchronized long diskHits() {
+        return diskHits;
+    }
+
+    /** Returns how many lookups had to run the pipeline. */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns how many images were dropped from memory to stay within budget. */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    private BufferedImage render(String key, BufferedImage inputImage, ImagePipeline pipeline) {
+        synchronized (this) {
+            BufferedImage cached = memory.get(key);
+            if (cached != null) {
+                memoryHits++;
+                return cached;
+            }
+            misses++;
+        }
+
+        // Render outside the lock; two threads missing on the same key both compute it
+        BufferedImage outputImage = pipeline.apply(inputImage);
+        long bytes = ImageBufferPool.rasterBytes(outputImage);
+        if (bytes > maxBytes) {
+            return outputImage;
+        }
+        synchronized (this) {
+            BufferedImage previous = memory.put(key, outputImage);
+            if (previous != null) {
+                memoryBytes -= ImageBufferPool.rasterBytes(previous);
+            }
+            memoryBytes += bytes;
+            for (Iterator<Map.Entry<String, BufferedImage>> it = memory.entrySet().iterator();
+                 memoryBytes > maxBytes && it.hasNext(); ) {
+                memoryBytes -= ImageBufferPool.rasterBytes(it.next().getValue());
+                it.remove();
+                evictions++;
+            }
+        }
+        return outputImage;
+    }
+}
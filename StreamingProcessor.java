@@ -0,0 +1,336 @@
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Vector;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Processes images that are too large to hold in memory, one horizontal strip
+ * at a time.
+ *
+ * The output is presented to the ImageWriter as an image whose pixels are
+ * computed on demand: as the writer pulls rows, the strip containing them is
+ * decoded from the input with ImageReadParam.setSourceRegion, run through the
+ * pipeline and kept until the writer moves past it. Blur steps read a halo of
+ * extra rows above and below each strip, so the result is identical to
+ * processing the whole image at once. Peak memory is proportional to the strip
+ * height times the image width, not to the image size.
+ *
+ * Only operations that keep rows independent can stream: point operations,
+ * blurs and other kernels, and horizontal flips. Rotations, vertical flips
+ * and wrapped edges need the whole image.
+ *
+ * Formats that store strips or tiles (such as TIFF) can decode any strip
+ * directly. Sequential formats (JPEG, PNG) are decoded from the start of the
+ * file up to each strip, which trades decode time for bounded memory.
+ */
+public final class StreamingProcessor {
+
+    private static final int[] RGB_MASKS = {0x00ff0000, 0x0000ff00, 0x000000ff};
+
+    private final ImagePipeline pipeline;
+    private final int stripHeight;
+    private final int subsampling;
+
+    /**
+     * Creates a processor that streams full-resolution strips.
+     *
+     * @param pipeline    The row-local operations to apply.
+     * @param stripHeight The number of output rows computed at a time.
+     */
+    public StreamingProcessor(ImagePipeline pipeline, int stripHeight) {
+        this(pipeline, stripHeight, 1);
+    }
+
+    /**
+     * Creates a processor that optionally decodes only every n-th row and column.
+     *
+     * @param pipeline    The row-local operations to apply.
+     * @param stripHeight The number of output rows computed at a time.
+     * @param subsampling Keep one source pixel in every subsampling x subsampling block (1 for all).
+     */
+    public StreamingProcessor(ImagePipeline pipeline, int stripHeight, int subsampling) {
+        Orientation orientation = pipeline.orientation();
+        if (orientation != Orientation.IDENTITY && orientation != Orientation.FLIP_HORIZONTAL) {
+            throw new IllegalArgumentException("Rotations and vertical flips cannot be streamed: " + pipeline);
+        }
+        if (pipeline.wrapsEdges()) {
+            throw new IllegalArgumentException("Wrapped edges cannot be streamed: " + pipeline);
+        }
+        if (stripHeight < 1 || subsampling < 1) {
+            throw new IllegalArgumentException("Strip height and subsampling must be at least 1");
+        }
+        this.pipeline = pipeline;
+        this.stripHeight = stripHeight;
+        this.subsampling = subsampling;
+    }
+
+    /**
+     * Streams an image file through the pipeline into another file.
+     *
+     * @param input  The image file to read.
+     * @param output The image file to write.
+     * @param format The ImageIO format name of the output, e.g. "png", "tiff" or "jpg".
+     * @throws IOException If the input cannot be decoded or the output cannot be written.
+     */
+    public void process(File input, File output, String format) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(input)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + input);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, false, true);
+                StripImage image = new StripImage(reader);
+                ImageEncoder.of(format).write(image, output.toPath());
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Streams an image from the command line.
+     *
+     * Usage: StreamingProcessor &lt;input&gt; &lt;operation chain&gt; &lt;output&gt; [strip height]
+     *
+     * @param args The input, chain, output and optional strip height arguments.
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: StreamingProcessor <input> <operation chain> <output> [strip height]");
+            return;
+        }
+        try {
+            int stripHeight = args.length == 4 ? Integer.parseInt(args[3]) : 256;
+            String output = args[2];
+            String format = output.substring(output.lastIndexOf('.') + 1);
+            new StreamingProcessor(ImagePipeline.parse(args[1]), stripHeight).process(new File(args[0]), new File(output), format);
+            System.out.println("Done!");
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The processed image, presented as a single tile whose raster computes
+     * its pixels strip by strip as they are read.
+     */
+    private final class StripImage implements RenderedImage {
+
+        private final ImageReader reader;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int width;
+        private final int height;
+        private final ColorModel colorModel = new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]);
+        private final SampleModel sampleModel;
+        private final Raster raster;
+
+        StripImage(ImageReader reader) throws IOException {
+            this.reader = reader;
+            this.sourceWidth = reader.getWidth(0);
+            this.sourceHeight = reader.getHeight(0);
+            this.width = (sourceWidth + subsampling - 1) / subsampling;
+            this.height = (sourceHeight + subsampling - 1) / subsampling;
+            this.sampleModel = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, RGB_MASKS);
+            this.raster = new Raster(sampleModel, new StripBuffer(), new Point(0, 0)) { };
+        }
+
+        /**
+         * Decodes and processes the output rows [fromRow, toRow), reading a
+         * halo of extra rows on either side for neighborhood operations.
+         */
+        int[] computeStrip(int fromRow, int toRow) {
+            int halo = pipeline.haloRows();
+            int readFrom = Math.max(0, fromRow - halo);
+            int readTo = Math.min(height, toRow + halo);
+            ImageReadParam param = reader.getDefaultReadParam();
+            int sourceFrom = readFrom * subsampling;
+            int sourceTo = Math.min(sourceHeight, readTo * subsampling);
+            param.setSourceRegion(new Rectangle(0, sourceFrom, sourceWidth, sourceTo - sourceFrom));
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            BufferedImage decoded;
+            try {
+                decoded = reader.read(0, param);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to decode rows " + sourceFrom + "-" + sourceTo, e);
+            }
+
+            PixelBuffer processed = pipeline.apply(PixelBuffer.of(decoded));
+            int[] strip = new int[(toRow - fromRow) * width];
+            System.arraycopy(processed.pixels, (fromRow - readFrom) * width, strip, 0, strip.length);
+            return strip;
+        }
+
+        /**
+         * An int data buffer that holds only the current strip and computes the
+         * next one when an element outside it is requested.
+         */
+        private final class StripBuffer extends DataBuffer {
+
+            private int stripFrom = -1;
+            private int stripTo = -1;
+            private int[] strip;
+
+            StripBuffer() {
+                super(DataBuffer.TYPE_INT, Math.multiplyExact(width, height));
+            }
+
+            @Override
+            public int getElem(int bank, int i) {
+                int row = i / width;
+                if (row < stripFrom || row >= stripTo) {
+                    stripFrom = row / stripHeight * stripHeight;
+                    stripTo = Math.min(height, stripFrom + stripHeight);
+                    strip = computeStrip(stripFrom, stripTo);
+                }
+                return strip[i - stripFrom * width];
+            }
+
+            @Override
+            public void setElem(int bank, int i, int val) {
+                throw new UnsupportedOperationException("Streamed images are read-only");
+            }
+        }
+
+        @Override
+        public Vector<RenderedImage> getSources() {
+            return null;
+        }
+
+        @Override
+        public Object getProperty(String name) {
+            return java.awt.Image.UndefinedProperty;
+        }
+
+        @Override
+        public String[] getPropertyNames() {
+            return null;
+        }
+
+        @Override
+        public ColorModel getColorModel() {
+            return colorModel;
+        }
+
+        @Override
+        public SampleModel getSampleModel() {
+            return sampleModel;
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int getMinX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinY() {
+            return 0;
+        }
+
+        @Override
+        public int getNumXTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getNumYTiles() {
+            return 1;
+        }
+
+        @Override
+        public int getMinTileX() {
+            return 0;
+        }
+
+        @Override
+        public int getMinTileY() {
+            return 0;
+        }
+
+        @Override
+        public int getTileWidth() {
+            return width;
+        }
+
+        @Override
+        public int getTileHeight() {
+            return height;
+        }
+
+        @Override
+        public int getTileGridXOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getTileGridYOffset() {
+            return 0;
+        }
+
+        @Override
+        public Raster getTile(int tileX, int tileY) {
+            return raster;
+        }
+
+        @Override
+        public Raster getData() {
+            return getData(new Rectangle(0, 0, width, height));
+        }
+
+        @Override
+        public Raster getData(Rectangle rect) {
+            WritableRaster copy = raster.createCompatibleWritableRaster(rect);
+            copyRows(rect, copy);
+            return copy;
+        }
+
+        @Override
+        public WritableRaster copyData(WritableRaster destination) {
+            Rectangle rect = destination != null ? destination.getBounds() : new Rectangle(0, 0, width, height);
+            WritableRaster target = destination != null ? destination : raster.createCompatibleWritableRaster(rect);
+            copyRows(rect, target);
+            return target;
+        }
+
+        private void copyRows(Rectangle rect, WritableRaster target) {
+            Rectangle bounds = rect.intersection(new Rectangle(0, 0, width, height));
+            Object row = null;
+            for (int y = bounds.y; y < bounds.y + bounds.height; y++) {
+                row = raster.getDataElements(bounds.x, y, bounds.width, 1, row);
+                target.setDataElements(bounds.x, y, bounds.width, 1, row);
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+ * Per-channel summed-area tables (integral images) of an image, answering
+ * rectangle sums and means in constant time.
+ *
+ * Entry (x, y) of a table holds the sum of the channel over all pixels above
+ * and to the left of (x, y), so any rectangle sum is four lookups. The tables
+ * are built once in two passes and then serve blurs at any radius, or at a
+ * different radius for every pixel, without touching the pixels again.
+ *
+ * Sums are stored as ints when the whole image's sum fits in one, which
+ * covers images up to about 8 megapixels at 12 bytes per pixel, and as longs
+ * beyond that at 24 bytes per pixel.
+ *
+ * <pre>
+ * SummedAreaTable table = SummedAreaTable.of(image);
+ * for (int radius : new int[] {3, 7, 15}) {
+ *     show(table.blur(radius));                    // no rescan per radius
+ * }
+ * double skyBrightness = table.mean(ImageStatistics.Channel.BLUE, new Rectangle(0, 0, 640, 120));
+ * </pre>
+ */
+public final class SummedAreaTable {
+
+    private final int width;
+    private final int height;
+    private final int stride;
+    private final int[][] narrow;
+    private final long[][] wide;
+
+    private SummedAreaTable(int width, int height, RowSource rows) {
+        this.width = width;
+        this.height = height;
+        this.stride = width + 1;
+        int size = Math.multiplyExact(stride, height + 1);
+        if ((long) width * height * 255 <= Integer.MAX_VALUE) {
+            narrow = new int[][] {new int[size], new int[size], new int[size]};
+            wide = null;
+        } else {
+            narrow = null;
+            wide = new long[][] {new long[size], new long[size], new long[size]};
+        }
+
+        // Pass 1: running sums along every row
+        ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+            int[] row = new int[width];
+            for (int y = fromRow; y < toRow; y++) {
+                rows.read(y, row);
+                int base = (y + 1) * stride + 1;
+                long red = 0;
+                long green = 0;
+                long blue = 0;
+                for (int x = 0; x < width; x++) {
+                    int rgb = row[x];
+                    red += (rgb >> 16) & 0xff;
+                    green += (rgb >> 8) & 0xff;
+                    blue += rgb & 0xff;
+                    set(0, base + x, red);
+                    set(1, base + x, green);
+                    set(2, base + x, blue);
+                }
+            }
+        });
+
+        // Pass 2: running sums down every column, split into bands of columns
+        ParallelRows.forEachBand(height, width, (fromColumn, toColumn) -> {
+            for (int y = 2; y <= height; y++) {
+                int base = y * stride + 1;
+                for (int c = 0; c < 3; c++) {
+                    if (narrow != null) {
+                        int[] table = narrow[c];
+                        for (int x = fromColumn; x < toColumn; x++) {
+                            table[base + x] += table[base - stride + x];
+                        }
+                    } else {
+                        long[] table = wide[c];
+                        for (int x = fromColumn; x < toColumn; x++) {
+                            table[base + x] += table[base - stride + x];
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Builds the tables of an image.
+     *
+     * @param image The image to index.
+     * @return Its summed-area tables.
+     */
+    public static SummedAreaTable of(BufferedImage image) {
+        Metrics.Sample sample = Metrics.start("summedAreaTable", image);
+        SummedAreaTable table = new SummedAreaTable(image.getWidth(), image.getHeight(),
+                                                    (y, row) -> PixelBuffer.readRow(image, y, row));
+        Metrics.stop(sample, null);
+        return table;
+    }
+
+    /**
+     * Builds the tables of a pixel buffer.
+     *
+     * @param pixels The pixels to index.
+     * @return Their summed-area tables.
+     */
+    public static SummedAreaTable of(PixelBuffer pixels) {
+        return new SummedAreaTable(pixels.width, pixels.height,
+                                   (y, row) -> System.arraycopy(pixels.pixels, y * pixels.width, row, 0, pixels.width));
+    }
+
+    /** Returns the width of the indexed image. */
+    public int width() {
+        return width;
+    }
+
+    /** Returns the height of the indexed image. */
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the sum of a channel over a rectangle, clipped to the image.
+     *
+     * @param channel The channel to sum; LUMA is not indexed.
+     * @param region  The rectangle to sum over.
+     * @return The sum of the channel values.
+     */
+    public long sum(ImageStatistics.Channel channel, Rectangle region) {
+        Rectangle clipped = region.intersection(new Rectangle(width, height));
+        if (clipped.isEmpty()) {
+            return 0;
+        }
+        return sum(index(channel), clipped.x, clipped.y, clipped.x + clipped.width, clipped.y + clipped.height);
+    }
+
+    /**
+     * Returns the mean of a channel over a rectangle, clipped to the image.
+     *
+     * @param channel The channel to average; LUMA is not indexed.
+     * @param region  The rectangle to average over.
+     * @return The mean value, or 0 if the rectangle lies outside the image.
+     */
+    public double mean(ImageStatistics.Channel channel, Rectangle region) {
+        Rectangle clipped = region.intersection(new Rectangle(width, height));
+        if (clipped.isEmpty()) {
+            return 0;
+        }
+        return (double) sum(channel, clipped) / ((long) clipped.width * clipped.height);
+    }
+
+    /**
+     * Returns the mean color of a rectangle, clipped to the image.
+     *
+     * @param region The rectangle to average over.
+     * @return The rounded mean as an opaque packed RGB pixel, or black if the
+     *         rectangle lies outside the image.
+     */
+    public int meanRgb(Rectangle region) {
+        Rectangle clipped = region.intersection(new Rectangle(width, height));
+        if (clipped.isEmpty()) {
+            return 0xff000000;
+        }
+        long area = (long) clipped.width * clipped.height;
+        int x1 = clipped.x + clipped.width;
+        int y1 = clipped.y + clipped.height;
+        int red = (int) ((sum(0, clipped.x, clipped.y, x1, y1) + area / 2) / area);
+        int green = (int) ((sum(1, clipped.x, clipped.y, x1, y1) + area / 2) / area);
+        int blue = (int) ((sum(2, clipped.x, clipped.y, x1, y1) + area / 2) / area);
+        return 0xff000000 | red << 16 | green << 8 | blue;
+    }
+
+    /**
+     * Blurs the indexed image with a box of the given radius and clamped
+     * edges. The result is identical to a single {@link BoxBlur} pass with
+     * {@link EdgeMode#CLAMP}, at a cost that depends on neither the radius nor
+     * the number of radii already computed.
+     *
+     * @param radius The blur radius in pixels.
+     * @return A new buffer holding the blurred pixels.
+     */
+    public PixelBuffer blur(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("Blur radius must not be negative: " + radius);
+        }
+        PixelBuffer dst = PixelBuffer.allocate(width, height);
+        ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+            for (int y = fromRow; y < toRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    dst.pixels[y * width + x] = clampedMean(x, y, radius);
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Blurs the indexed image with a box whose radius varies per pixel, e.g.
+     * to fake depth of field from a depth mask. Edges are clamped as in
+     * {@link #blur(int)}.
+     *
+     * @param radii The blur radius of every pixel, row by row; 0 keeps the pixel.
+     * @return A new buffer holding the blurred pixels.
+     */
+    public PixelBuffer blur(int[] radii) {
+        if (radii.length != width * height) {
+            throw new IllegalArgumentException("Expected " + width * height + " radii, got " + radii.length);
+        }
+        PixelBuffer dst = PixelBuffer.allocate(width, height);
+        ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+            for (int y = fromRow; y < toRow; y++) {
+                for (int x = 0; x < width; x++) {
+                    dst.pixels[y * width + x] = clampedMean(x, y, Math.max(0, radii[y * width + x]));
+                }
+            }
+        });
+        return dst;
+    }
+
+    /**
+     * Blurs the indexed image by a grayscale mask: white pixels of the mask
+     * get the maximum radius, black pixels stay sharp.
+     *
+     * @param mask      An image of the same size whose luma scales the radius.
+     * @param maxRadius The radius where the mask is white.
+     * @return A new buffer holding the blurred pixels.
+     */
+    public PixelBuffer blur(BufferedImage mask, int maxRadius) {
+        if (mask.getWidth() != width || mask.getHeight() != height) {
+            throw new IllegalArgumentException("Mask is " + mask.getWidth() + "x" + mask.getHeight()
+                    + ", expected " + width + "x" + height);
+        }
+        if (maxRadius < 0) {
+            throw new IllegalArgumentException("Blur radius must not be negative: " + maxRadius);
+        }
+        int[] radii = new int[width * height];
+        ParallelRows.forEachBand(width, height, (fromRow, toRow) -> {
+            int[] row = new int[width];
+            for (int y = fromRow; y < toRow; y++) {
+                PixelBuffer.readRow(mask, y, row);
+                for (int x = 0; x < width; x++) {
+                    radii[y * width + x] = (GrayscaleConverter.BT601.luma(row[x]) * maxRadius + 127) / 255;
+                }
+            }
+        });
+        return blur(radii);
+    }
+
+    /**
+     * Returns the truncated mean of the (2r+1) x (2r+1) window around a pixel,
+     * with pixels beyond the edges repeating the edge pixels.
+     *
+     * The window is clipped to the image, and each clamped-away row or column
+     * is added back as extra copies of the edge row or column it repeats,
+     * which are themselves rectangle sums.
+     */
+    private int clampedMean(int x, int y, int radius) {
+        int x0 = Math.max(0, x - radius);
+        int y0 = Math.max(0, y - radius);
+        int x1 = Math.min(width, x + radius + 1);
+        int y1 = Math.min(height, y + radius + 1);
+        long left = Math.max(0, radius - x);
+        long right = Math.max(0, x + radius + 1 - width);
+        long top = Math.max(0, radius - y);
+        long bottom = Math.max(0, y + radius + 1 - height);
+        long window = 2L * radius + 1;
+        long area = window * window;
+        int rgb = 0xff000000;
+        for (int c = 0; c < 3; c++) {
+            long total = sum(c, x0, y0, x1, y1);
+            if ((left | right | top | bottom) != 0) {
+                total += left * sum(c, 0, y0, 1, y1) + right * sum(c, width - 1, y0, width, y1)
+                        + top * sum(c, x0, 0, x1, 1) + bottom * sum(c, x0, height - 1, x1, height)
+                        + left * top * sum(c, 0, 0, 1, 1) + left * bottom * sum(c, 0, height - 1, 1, height)
+                        + right * top * sum(c, width - 1, 0, width, 1)
+                        + right * bottom * sum(c, width - 1, height - 1, width, height);
+            }
+            rgb |= (int) (total / area) << (16 - 8 * c);
+        }
+        return rgb;
+    }
+
+    /**
+     * Returns the sum of channel c over [x0, x1) x [y0, y1).
+     */
+    private long sum(int c, int x0, int y0, int x1, int y1) {
+        int topLeft = y0 * stride + x0;
+        int bottomLeft = y1 * stride + x0;
+        int width = x1 - x0;
+        if (narrow != null) {
+            int[] table = narrow[c];
+            return (long) table[bottomLeft + width] - table[bottomLeft] - table[topLeft + width] + table[topLeft];
+        }
+        long[] table = wide[c];
+        return table[bottomLeft + width] - table[bottomLeft] - table[topLeft + width] + table[topLeft];
+    }
+
+    private void set(int c, int index, long value) {
+        if (narrow != null) {
+            narrow[c][index] = (int) value;
+        } else {
+            wide[c][index] = value;
+        }
+    }
+
+    private static int index(ImageStatistics.Channel channel) {
+        switch (channel) {
+            case RED:
+                return 0;
+            case GREEN:
+                return 1;
+            case BLUE:
+                return 2;
+            default:
+                throw new IllegalArgumentException("Channel is not indexed: " + channel);
+        }
+    }
+
+    /**
+     * Supplies the packed pixels of one row.
+     */
+    @FunctionalInterface
+    private interface RowSource {
+        void read(int y, int[] row);
+    }
+}
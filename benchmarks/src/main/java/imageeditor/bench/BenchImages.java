@@ -0,0 +1,87 @@
+package imageeditor.bench;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.OutputStream;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Builds the input images used by the benchmarks.
+ */
+final class BenchImages {
+
+    /** The name of the sample photo bundled with the repository. */
+    static final String SAMPLE = "3.jpeg";
+
+    private BenchImages() {
+    }
+
+    /**
+     * Creates an input image.
+     *
+     * @param size      Either "WIDTHxHEIGHT" for a generated image or {@link #SAMPLE}.
+     * @param imageType One of INT_RGB, 3BYTE_BGR or BYTE_GRAY.
+     * @return The image, converted to the requested type.
+     */
+    static BufferedImage create(String size, String imageType) throws IOException {
+        BufferedImage source = SAMPLE.equals(size) ? loadSample() : generate(size);
+        BufferedImage image = new BufferedImage(source.getWidth(), source.getHeight(), type(imageType));
+        Graphics2D graphics = image.createGraphics();
+        graphics.drawImage(source, 0, 0, null);
+        graphics.dispose();
+        return image;
+    }
+
+    /**
+     * Silences the editor's progress messages so they do not distort timings.
+     */
+    static void silenceConsole() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    private static BufferedImage generate(String size) {
+        String[] parts = size.split("x");
+        int width = Integer.parseInt(parts[0]);
+        int height = Integer.parseInt(parts[1]);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] row = new int[width];
+        Random random = new Random(42);
+        // Smooth gradients plus noise, so neither the filters nor the JIT see a flat image
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = (x * 255 / width + random.nextInt(32)) & 0xff;
+                int green = (y * 255 / height + random.nextInt(32)) & 0xff;
+                int blue = ((x + y) * 127 / (width + height) + random.nextInt(64)) & 0xff;
+                row[x] = red << 16 | green << 8 | blue;
+            }
+            image.setRGB(0, y, width, 1, row, 0, width);
+        }
+        return image;
+    }
+
+    private static BufferedImage loadSample() throws IOException {
+        try (InputStream in = BenchImages.class.getClassLoader().getResourceAsStream(SAMPLE)) {
+            if (in == null) {
+                throw new IOException(SAMPLE + " is not on the classpath");
+            }
+            return ImageIO.read(in);
+        }
+    }
+
+    private static int type(String imageType) {
+        switch (imageType) {
+            case "INT_RGB":
+                return BufferedImage.TYPE_INT_RGB;
+            case "3BYTE_BGR":
+                return BufferedImage.TYPE_3BYTE_BGR;
+            case "BYTE_GRAY":
+                return BufferedImage.TYPE_BYTE_GRAY;
+            default:
+                throw new IllegalArgumentException("Unknown image type: " + imageType);
+        }
+    }
+}
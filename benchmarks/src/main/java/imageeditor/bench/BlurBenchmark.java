@@ -0,0 +1,52 @@
+package imageeditor.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times applyBlur at several radii, kept apart from {@link EditorBenchmark}
+ * so the radius parameter does not multiply every other benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class BlurBenchmark {
+
+    @Param({"640x480", "1920x1080", "3840x2160", "7680x4320", BenchImages.SAMPLE})
+    public String size;
+
+    @Param({"3BYTE_BGR", "INT_RGB", "BYTE_GRAY"})
+    public String imageType;
+
+    @Param({"1", "5", "25"})
+    public int blurRadius;
+
+    private BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchImages.silenceConsole();
+        image = BenchImages.create(size, imageType);
+    }
+
+    @Benchmark
+    public BufferedImage applyBlur() throws Throwable {
+        return (BufferedImage) Editor.APPLY_BLUR.invokeExact(image, blurRadius);
+    }
+}
@@ -0,0 +1,45 @@
+package imageeditor.bench;
+
+import java.awt.image.BufferedImage;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Handles to the editor's static methods.
+ *
+ * The editor classes live in the default package, which cannot be imported
+ * from a named package, so the benchmarks call them through MethodHandles.
+ * The handles are static final constants, which the JIT inlines like a
+ * direct call.
+ */
+final class Editor {
+
+    private static final MethodType UNARY = MethodType.methodType(BufferedImage.class, BufferedImage.class);
+    private static final MethodType WITH_INT = MethodType.methodType(BufferedImage.class, BufferedImage.class, int.class);
+
+    static final MethodHandle CONVERT_TO_GRAYSCALE = find("BasicImageEditor", "convertToGrayscale", UNARY);
+    static final MethodHandle INCREASE_BRIGHTNESS = find("BasicImageEditor", "increaseBrightness", WITH_INT);
+    static final MethodHandle ADJUST_CONTRAST = find("BasicImageEditor", "adjustContrast", WITH_INT);
+    static final MethodHandle APPLY_BLUR = find("BasicImageEditor", "applyBlur", WITH_INT);
+    static final MethodHandle ROTATE_CLOCKWISE = find("BasicImageEditor", "rotateImageClockwise", UNARY);
+    static final MethodHandle ROTATE_ANTI_CLOCKWISE = find("BasicImageEditor", "rotateImageAntiClockwise", UNARY);
+    static final MethodHandle FLIP_VERTICAL = find("BasicImageEditor", "flipVertical", UNARY);
+    static final MethodHandle FLIP_HORIZONTAL = find("BasicImageEditor", "flipHorizontal", UNARY);
+    static final MethodHandle RED_LIGHT = find("BasicImageEditor", "applyRedLightFilter", WITH_INT);
+    static final MethodHandle GREEN_LIGHT = find("BasicImageEditor", "applyGreenLightFilter", WITH_INT);
+    static final MethodHandle BLUE_LIGHT = find("BasicImageEditor", "applyBlueLightFilter", WITH_INT);
+    static final MethodHandle INVERT_COLORS = find("BasicImageEditor", "invertColors", UNARY);
+
+    private Editor() {
+    }
+
+    static MethodHandle find(String className, String methodName, MethodType type) {
+        try {
+            Class<?> owner = Class.forName(className);
+            return MethodHandles.publicLookup().findStatic(owner, methodName, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package imageeditor.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Times every single-image operation of BasicImageEditor across image sizes
+ * and input types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx4g"})
+public class EditorBenchmark {
+
+    @Param({"640x480", "1920x1080", "3840x2160", "7680x4320", BenchImages.SAMPLE})
+    public String size;
+
+    @Param({"3BYTE_BGR", "INT_RGB", "BYTE_GRAY"})
+    public String imageType;
+
+    private BufferedImage image;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        BenchImages.silenceConsole();
+        image = BenchImages.create(size, imageType);
+    }
+
+    @Benchmark
+    public BufferedImage convertToGrayscale() throws Throwable {
+        return (BufferedImage) Editor.CONVERT_TO_GRAYSCALE.invokeExact(image);
+    }
+
+    @Benchmark
+    public BufferedImage increaseBrightness() throws Throwable {
+        return (BufferedImage) Editor.INCREASE_BRIGHTNESS.invokeExact(image, 20);
+    }
+
+    @Benchmark
+    public BufferedImage adjustContrast() throws Throwable {
+        return (BufferedImage) Editor.ADJUST_CONTRAST.invokeExact(image, 2);
+    }
+
+    @Benchmark
+    public BufferedImage rotateImageClockwise() throws Throwable {
+        return (BufferedImage) Editor.ROTATE_CLOCKWISE.invokeExact(image);
+    }
+
+    @Benchmark
+    public BufferedImage rotateImageAntiClockwise() throws Throwable {
+        return (BufferedImage) Editor.ROTATE_ANTI_CLOCKWISE.invokeExact(image);
+    }
+
+    @Benchmark
+    public BufferedImage flipVertical() throws Throwable {
+        return (BufferedImage) Editor.FLIP_VERTICAL.invokeExact(image);
+    }
+
+    @Benchmark
+    public BufferedImage flipHorizontal() throws Throwable {
+        return (BufferedImage) Editor.FLIP_HORIZONTAL.invokeExact(image);
+    }
+
+    @Benchmark
+    public BufferedImage applyRedLightFilter() throws Throwable {
+        return (BufferedImage) Editor.RED_LIGHT.invokeExact(image, 40);
+    }
+
+    @Benchmark
+    public BufferedImage applyGreenLightFilter() throws Throwable {
+        return (BufferedImage) Editor.GREEN_LIGHT.invokeExact(image, 40);
+    }
+
+    @Benchmark
+    public BufferedImage applyBlueLightFilter() throws Throwable {
+        return (BufferedImage) Editor.BLUE_LIGHT.invokeExact(image, 40);
+    }
+
+    @Benchmark
+    public BufferedImage invertColors() throws Throwable {
+        return (BufferedImage) Editor.INVERT_COLORS.invokeExact(image);
+    }
+}
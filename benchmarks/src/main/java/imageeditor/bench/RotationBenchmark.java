@@ -0,0 +1,98 @@
+package imageeditor.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the tiled rotation engine with a plain row-by-row transpose of
+ * the same packed raster, on 8K and larger images where the untiled version
+ * misses the cache on nearly every read.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms6g", "-Xmx6g"})
+public class RotationBenchmark {
+
+    private static final MethodHandle PIXELS_OF;
+    private static final MethodHandle PIXEL_ARRAY;
+    private static final MethodHandle ORIENT;
+    private static final Object ROTATE_CLOCKWISE;
+    private static final Object ROTATE_180;
+
+    static {
+        try {
+            Class<?> pixelBuffer = Class.forName("PixelBuffer");
+            Class<?> orientation = Class.forName("Orientation");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            PIXELS_OF = lookup.findStatic(pixelBuffer, "of", MethodType.methodType(pixelBuffer, BufferedImage.class))
+                    .asType(MethodType.methodType(Object.class, BufferedImage.class));
+            PIXEL_ARRAY = lookup.findGetter(pixelBuffer, "pixels", int[].class)
+                    .asType(MethodType.methodType(int[].class, Object.class));
+            ORIENT = lookup.findVirtual(orientation, "apply", MethodType.methodType(pixelBuffer, pixelBuffer))
+                    .asType(MethodType.methodType(Object.class, Object.class, Object.class));
+            ROTATE_CLOCKWISE = orientation.getField("ROTATE_CLOCKWISE").get(null);
+            ROTATE_180 = orientation.getField("ROTATE_180").get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @Param({"7680x4320", "10240x7680"})
+    public String size;
+
+    private Object pixels;
+    private int[] raw;
+    private int width;
+    private int height;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Throwable {
+        BenchImages.silenceConsole();
+        BufferedImage image = BenchImages.create(size, "INT_RGB");
+        width = image.getWidth();
+        height = image.getHeight();
+        pixels = (Object) PIXELS_OF.invokeExact(image);
+        raw = (int[]) PIXEL_ARRAY.invokeExact(pixels);
+    }
+
+    @Benchmark
+    public Object rotateClockwiseTiled() throws Throwable {
+        return (Object) ORIENT.invokeExact(ROTATE_CLOCKWISE, pixels);
+    }
+
+    @Benchmark
+    public int[] rotateClockwiseUntiled() {
+        // The row-by-row transpose the editor used before the tiled engine
+        int[] dst = new int[raw.length];
+        for (int y = 0; y < width; y++) {
+            for (int x = 0; x < height; x++) {
+                dst[y * height + x] = raw[(height - x - 1) * width + y];
+            }
+        }
+        return dst;
+    }
+
+    @Benchmark
+    public Object rotate180() throws Throwable {
+        return (Object) ORIENT.invokeExact(ROTATE_180, pixels);
+    }
+}